@@ -0,0 +1,66 @@
+package com.foogaro.data.cache;
+
+import com.foogaro.data.cache.patterns.Pattern;
+import gears.ExecutionMode;
+import gears.records.KeysReaderRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What {@link RGManager} adds to each event before the pattern gets it: the metrics of {@code dispatch}, and the
+ * check that the key belongs to the entity the registration is for.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RGManagerBenchmark {
+
+    private Pattern pattern;
+    private KeysReaderRecord record;
+
+    @Setup
+    public void setUp() {
+        pattern = new NoOp();
+        record = new KeysReaderRecord("person:4242", "hset", false, null);
+    }
+
+    @Benchmark
+    public void dispatch() {
+        RGManager.dispatch(pattern, record);
+    }
+
+    @Benchmark
+    public void routeAndDispatch() {
+        if (PatternRouter.routes("person", record.getKey())) RGManager.dispatch(pattern, record);
+    }
+
+    static class NoOp extends Pattern {
+
+        @Override
+        public ExecutionMode getExecutionMode() {
+            return ExecutionMode.SYNC;
+        }
+
+        @Override
+        public String[] getEventsType() {
+            return new String[]{"hset"};
+        }
+
+        @Override
+        public void onProcessEvent(KeysReaderRecord record) {
+        }
+    }
+}
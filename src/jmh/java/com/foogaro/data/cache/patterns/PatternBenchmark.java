@@ -0,0 +1,104 @@
+package com.foogaro.data.cache.patterns;
+
+import com.foogaro.data.cache.codec.EntityCodec;
+import com.foogaro.data.entities.Person;
+import gears.records.KeysReaderRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The work the patterns do on each event of an entity: the HSET arguments of a write, the hash of a record mapped
+ * back to the entity, and the id parsed out of the key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatternBenchmark {
+
+    private static final String KEY = "person:4242";
+
+    private Pattern pattern;
+    private EntityCodec<Person> codec;
+    private Person person;
+    private Map<String, String> hash;
+    private ByteBuffer value;
+
+    @Setup
+    public void setUp() {
+        pattern = new WriteThrough(Person.class);
+        codec = EntityCodec.of(Person.class);
+        person = new Person();
+        person.setId(4242L);
+        person.setFirstname("Luigi");
+        person.setLastname("Fugaro");
+        person.setAge(47);
+        hash = new LinkedHashMap<>();
+        hash.put("id", "4242");
+        hash.put("firstname", "Luigi");
+        hash.put("lastname", "Fugaro");
+        hash.put("age", "47");
+        value = encode(hash);
+    }
+
+    @Benchmark
+    public String[] generateHSET() {
+        return pattern.generateHSET(person, "4242");
+    }
+
+    @Benchmark
+    public Person decodeHash() {
+        return codec.decode(KEY, hash);
+    }
+
+    /**
+     * The hash as a keyspace record hands it to the patterns, read out of the value buffer, then decoded.
+     */
+    @Benchmark
+    public Person decodeRecord() {
+        KeysReaderRecord record = new KeysReaderRecord(KEY, "hset", true, value.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+        return codec.decode(record.getKey(), record.getHashVal());
+    }
+
+    @Benchmark
+    public Object idOf() {
+        return codec.idOf(KEY);
+    }
+
+    /**
+     * The hash in the layout RedisGears hands it to {@link KeysReaderRecord}, which reads it up to its capacity.
+     */
+    private static ByteBuffer encode(Map<String, String> hash) {
+        List<byte[]> parts = new ArrayList<>();
+        for (Map.Entry<String, String> field : hash.entrySet()) {
+            parts.add(field.getKey().getBytes(StandardCharsets.UTF_8));
+            parts.add(field.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        int size = Long.BYTES;
+        for (byte[] part : parts) size += Long.BYTES + part.length;
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(KeysReaderRecord.REDISMODULE_KEYTYPE_HASH);
+        for (byte[] part : parts) buffer.putLong(part.length).put(part);
+        buffer.flip();
+        return buffer;
+    }
+}
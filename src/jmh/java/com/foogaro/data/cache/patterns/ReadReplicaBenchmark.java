@@ -0,0 +1,95 @@
+package com.foogaro.data.cache.patterns;
+
+import com.foogaro.data.cache.cdc.CdcEvent;
+import com.foogaro.data.cache.cdc.DebeziumDecoder;
+import com.foogaro.data.cache.codec.EntityCodec;
+import com.foogaro.data.entities.Person;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The work {@link ReadReplica} does on a batch of change events: the XREAD reply flattened into entries, and each
+ * Debezium value decoded into an event, with and without the schema envelope.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadReplicaBenchmark {
+
+    private static final String KEY = "{\"id\":4242}";
+    private static final String VALUE = "{\"before\":{\"id\":4242,\"firstname\":\"Luigi\",\"lastname\":\"Fugaro\",\"age\":46},"
+            + "\"after\":{\"id\":4242,\"firstname\":\"Luigi\",\"lastname\":\"Fugaro\",\"age\":47},"
+            + "\"source\":{\"version\":\"2.1.2.Final\",\"connector\":\"mysql\",\"name\":\"vdt\",\"ts_ms\":1700000000000,"
+            + "\"db\":\"vdt\",\"table\":\"person\",\"server_id\":1,\"file\":\"binlog.000003\",\"pos\":4242,\"row\":0},"
+            + "\"op\":\"u\",\"ts_ms\":1700000000123}";
+    private static final String SCHEMA = "{\"type\":\"struct\",\"fields\":["
+            + "{\"type\":\"struct\",\"fields\":[{\"type\":\"int64\",\"optional\":false,\"field\":\"id\"},"
+            + "{\"type\":\"string\",\"optional\":true,\"field\":\"firstname\"},{\"type\":\"string\",\"optional\":true,\"field\":\"lastname\"},"
+            + "{\"type\":\"int32\",\"optional\":false,\"field\":\"age\"}],\"optional\":true,\"name\":\"vdt.vdt.person.Value\",\"field\":\"before\"},"
+            + "{\"type\":\"struct\",\"fields\":[{\"type\":\"int64\",\"optional\":false,\"field\":\"id\"},"
+            + "{\"type\":\"string\",\"optional\":true,\"field\":\"firstname\"},{\"type\":\"string\",\"optional\":true,\"field\":\"lastname\"},"
+            + "{\"type\":\"int32\",\"optional\":false,\"field\":\"age\"}],\"optional\":true,\"name\":\"vdt.vdt.person.Value\",\"field\":\"after\"},"
+            + "{\"type\":\"string\",\"optional\":false,\"field\":\"op\"},{\"type\":\"int64\",\"optional\":true,\"field\":\"ts_ms\"}],"
+            + "\"optional\":false,\"name\":\"vdt.vdt.person.Envelope\"}";
+
+    private EntityCodec<Person> codec;
+    private String enveloped;
+
+    @Setup
+    public void setUp() {
+        codec = EntityCodec.of(Person.class);
+        enveloped = "{\"schema\":" + SCHEMA + ",\"payload\":" + VALUE + "}";
+    }
+
+    /**
+     * An XREAD reply of a batch of change events.
+     */
+    @State(Scope.Benchmark)
+    public static class Batch {
+
+        @Param({"100"})
+        private int batchSize;
+
+        private Object[] reply;
+
+        @Setup
+        public void setUp() {
+            Object[] entries = new Object[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                entries[i] = new Object[]{"1700000000000-" + i, new Object[]{KEY, VALUE}};
+            }
+            reply = new Object[]{new Object[]{"vdt.vdt.person", entries}};
+        }
+    }
+
+    @Benchmark
+    public List<String[]> flattenReply(Batch batch) {
+        return StreamEntries.of(batch.reply);
+    }
+
+    @Benchmark
+    public CdcEvent decode() throws IOException {
+        return DebeziumDecoder.decode(codec, KEY, VALUE);
+    }
+
+    @Benchmark
+    public CdcEvent decodeWithSchema() throws IOException {
+        return DebeziumDecoder.decode(codec, KEY, enveloped);
+    }
+}
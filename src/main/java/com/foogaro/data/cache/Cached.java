@@ -0,0 +1,47 @@
+package com.foogaro.data.cache;
+
+import com.foogaro.data.cache.codec.Storage;
+import com.foogaro.data.cache.patterns.CachingPattern;
+import com.foogaro.data.jpa.Backend;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares how an entity is cached: the prefix of its keys, their time to live and the caching patterns
+ * {@link RGManager#register(Class[])} registers for it.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Cached {
+
+    /**
+     * Prefix of the entity keys, followed by ':' and the id; the lowercase class name by default.
+     */
+    String keyPrefix() default "";
+
+    /**
+     * Time to live, in seconds, of the keys written by the caching layer; 0 keeps them forever.
+     */
+    long ttlSeconds() default 0;
+
+    /**
+     * Fraction of the time to live by which each key's TTL is randomly moved up or down, so that keys written
+     * together do not expire together.
+     */
+    double ttlJitter() default 0;
+
+    CachingPattern[] patterns() default {CachingPattern.READ_THROUGH, CachingPattern.WRITE_THROUGH};
+
+    /**
+     * How write patterns persist the entity.
+     */
+    Backend backend() default Backend.HIBERNATE;
+
+    /**
+     * How the entity is laid out in Redis: a hash by default.
+     */
+    Storage storage() default Storage.HASH;
+}
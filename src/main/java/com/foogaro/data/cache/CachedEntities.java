@@ -0,0 +1,14 @@
+package com.foogaro.data.cache;
+
+import com.foogaro.data.entities.Person;
+
+/**
+ * Registers the caching patterns declared on the entities, as an alternative to the Person* classes.
+ */
+public class CachedEntities {
+
+    public static void main(String[] args) {
+        RGManager.register(Person.class);
+    }
+
+}
@@ -1,5 +1,6 @@
 package com.foogaro.data.cache;
 
+import com.foogaro.data.cache.patterns.PatternLog;
 import gears.ExecutionMode;
 import gears.GearsBuilder;
 import gears.operations.ForeachOperation;
@@ -10,17 +11,19 @@ import gears.records.KeysReaderRecord;
 
 public class CatchAll implements OnRegisteredOperation, OnUnregisteredOperation {
 
+    private static final PatternLog LOG = PatternLog.of("CatchAll", PatternLog.Level.VERBOSE, 1);
+
     public CatchAll() {
     }
 
     @Override
     public void onRegistered(String registrationId) throws Exception {
-        GearsBuilder.log("CatchAll.onRegistered - registrationId: " + registrationId);
+        LOG.notice("onRegistered - registrationId: {}", registrationId);
     }
 
     @Override
     public void onUnregistered() throws Exception {
-        GearsBuilder.log("CatchAll.onUnregistered");
+        LOG.notice("onUnregistered");
     }
 
     public static void main(String[] args) {
@@ -28,13 +31,14 @@ public class CatchAll implements OnRegisteredOperation, OnUnregisteredOperation
 
         GearsBuilder gb = GearsBuilder.CreateGearsBuilder(reader);
         gb.foreach((ForeachOperation<KeysReaderRecord>) record -> {
-            GearsBuilder.log("CatchAll.Record.getEvent: " + record.getEvent());
-            GearsBuilder.log("CatchAll.Record.getKey: " + record.getKey());
-            GearsBuilder.log("CatchAll.Record.getType: " + record.getType());
-            GearsBuilder.log("CatchAll.Record.getStringVal: " + record.getStringVal());
-            GearsBuilder.log("CatchAll.Record.getListVal: " + record.getListVal());
-            GearsBuilder.log("CatchAll.Record.getSetVal: " + record.getSetVal());
-            GearsBuilder.log("CatchAll.Record.getHashVal: " + record.getHashVal());
+            LOG.verbose("Record: event={} key={}", record.getEvent(), record.getKey());
+            if (LOG.isEnabled(PatternLog.Level.DEBUG)) {
+                LOG.debug("Record: type=" + record.getType()
+                        + " stringVal=" + record.getStringVal()
+                        + " listVal=" + record.getListVal()
+                        + " setVal=" + record.getSetVal()
+                        + " hashVal=" + record.getHashVal());
+            }
         });
 
         CatchAll catchAll = new CatchAll();
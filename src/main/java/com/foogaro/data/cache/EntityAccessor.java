@@ -0,0 +1,128 @@
+package com.foogaro.data.cache;
+
+import com.foogaro.data.cache.codec.EntityCodec;
+import com.foogaro.data.cache.patterns.ReadThrough;
+import gears.GearsBuilder;
+import gears.operations.MapOperation;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serves the fields of entities stored as compact strings with the hash commands clients would use on a hash:
+ * <pre>
+ * RG.TRIGGER ENTITY HGET person:1 firstname
+ * RG.TRIGGER ENTITY HMGET person:1 firstname age
+ * RG.TRIGGER ENTITY HGETALL person:1
+ * RG.TRIGGER ENTITY HSET person:1 age 43
+ * </pre>
+ * Reads reply with a list of values, null for missing ones; a missing or outdated value is loaded inline by the
+ * entity's read-through pattern, if it has one. HSET replies with the number of fields given, and replaces the value
+ * keeping its time to live, so that the entity's write patterns persist it like any client write.
+ */
+class EntityAccessor implements MapOperation<Object[], Serializable> {
+
+    static final String TRIGGER = "ENTITY";
+
+    // Entity classes rather than codecs, which are not serializable: RedisGears serializes the operation.
+    private final Map<String, Class<?>> entityClasses = new HashMap<>();
+    private final Map<String, ReadThrough> readers = new HashMap<>();
+
+    void add(Class<?> entityClass, ReadThrough reader) {
+        String keyPrefix = EntityCodec.of(entityClass).getKeyPrefix();
+        entityClasses.put(keyPrefix, entityClass);
+        if (reader != null) readers.put(keyPrefix, reader);
+    }
+
+    boolean isEmpty() {
+        return entityClasses.isEmpty();
+    }
+
+    @SuppressWarnings("unchecked")
+    private EntityCodec<Object> codecOf(String keyPrefix) {
+        Class<?> entityClass = entityClasses.get(keyPrefix);
+        return entityClass != null ? (EntityCodec<Object>) EntityCodec.of(entityClass) : null;
+    }
+
+    @Override
+    public Serializable map(Object[] args) throws Exception {
+        // args[0] is the trigger name
+        if (args.length < 3) throw new IllegalArgumentException("Usage: RG.TRIGGER " + TRIGGER + " HGET|HMGET|HGETALL|HSET key [field [value] ...]");
+        String command = string(args[1]).toUpperCase();
+        String key = string(args[2]);
+        int separator = key.lastIndexOf(':');
+        EntityCodec<Object> codec = separator > 0 ? codecOf(key.substring(0, separator)) : null;
+        if (codec == null) throw new IllegalArgumentException("No compact entity stored at " + key);
+        switch (command) {
+            case "HGET":
+            case "HMGET": {
+                if (args.length < 4) throw new IllegalArgumentException("Usage: RG.TRIGGER " + TRIGGER + " " + command + " key field ...");
+                Object entity = read(codec, key, get(key));
+                ArrayList<String> values = new ArrayList<>();
+                for (int i = 3; i < args.length; i++) values.add(entity != null ? codec.encodeField(entity, string(args[i])) : null);
+                return values;
+            }
+            case "HGETALL": {
+                Object entity = read(codec, key, get(key));
+                ArrayList<String> values = new ArrayList<>();
+                if (entity == null) return values;
+                for (String name : codec.fieldNames()) {
+                    String value = codec.encodeField(entity, name);
+                    if (value == null) continue;
+                    values.add(name);
+                    values.add(value);
+                }
+                return values;
+            }
+            case "HSET":
+                if (args.length < 5 || (args.length - 3) % 2 != 0) {
+                    throw new IllegalArgumentException("Usage: RG.TRIGGER " + TRIGGER + " HSET key field value [field value ...]");
+                }
+                return write(codec, key, args);
+            default:
+                throw new IllegalArgumentException("Unknown command " + command);
+        }
+    }
+
+    private Object read(EntityCodec<Object> codec, String key, String value) throws Exception {
+        Object entity = value != null ? codec.decompact(key, value) : null;
+        if (entity == null) {
+            ReadThrough reader = readers.get(codec.getKeyPrefix());
+            if (reader != null) entity = reader.loadNow(key);
+        }
+        return entity;
+    }
+
+    private Long write(EntityCodec<Object> codec, String key, Object[] args) throws Exception {
+        String value = get(key);
+        Object entity = read(codec, key, value);
+        if (entity == null) {
+            entity = codec.newInstance();
+            if (codec.getIdName() != null) codec.decodeField(entity, codec.getIdName(), key.substring(key.lastIndexOf(':') + 1));
+        }
+        for (int i = 3; i < args.length; i += 2) codec.decodeField(entity, string(args[i]), string(args[i + 1]));
+        String metadata = value != null ? codec.metadataOf(value) : null;
+        GearsBuilder.executeArray(new String[]{"SET", key, codec.compact(entity, metadata), "KEEPTTL"});
+        return (long) (args.length - 3) / 2;
+    }
+
+    /**
+     * Reads the raw value without a key miss notification, which would trigger a second read-through load.
+     */
+    private static String get(String key) {
+        boolean avoidNotifications = GearsBuilder.setAvoidNotifications(true);
+        try {
+            Object value = GearsBuilder.executeArray(new String[]{"GET", key});
+            return value != null ? value.toString() : null;
+        } finally {
+            GearsBuilder.setAvoidNotifications(avoidNotifications);
+        }
+    }
+
+    private static String string(Object arg) {
+        return arg instanceof byte[] ? new String((byte[]) arg, StandardCharsets.UTF_8) : String.valueOf(arg);
+    }
+}
@@ -2,7 +2,7 @@ package com.foogaro.data.cache;
 
 public enum EventType {
 
-    HSET("hset"), HGET("hget"), HMGET("hmget"), KEY_MISS("keymiss"), EXPIRED("expired"), CDC("xadd");
+    HSET("hset"), SET("set"), HGET("hget"), HMGET("hmget"), KEY_MISS("keymiss"), EXPIRE("expire"), EXPIRED("expired"), CDC("xadd");
     private String eventType;
 
     EventType(String eventType) {
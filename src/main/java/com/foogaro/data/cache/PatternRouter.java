@@ -0,0 +1,33 @@
+package com.foogaro.data.cache;
+
+import com.foogaro.data.cache.patterns.Pattern;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Patterns of the same kind, one per entity. Each gets its own registration, whose reader only matches the keys
+ * of its prefix, so that events on the rest of the shard's keyspace never reach the JVM.
+ */
+class PatternRouter {
+
+    private final Map<String, Pattern> patterns = new LinkedHashMap<>();
+
+    void add(String keyPrefix, Pattern pattern) {
+        if (patterns.putIfAbsent(keyPrefix, pattern) != null) {
+            throw new IllegalArgumentException("Key prefix " + keyPrefix + " is already handled by " + patterns.get(keyPrefix).getName());
+        }
+    }
+
+    Map<String, Pattern> getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * Whether the key belongs to the entity of the prefix, being the part before its last ':'. The reader of
+     * {@code person:*} also matches {@code person:vip:1}, a key of the entity prefixed {@code person:vip}.
+     */
+    static boolean routes(String keyPrefix, String key) {
+        return key.lastIndexOf(':') == keyPrefix.length() && key.startsWith(keyPrefix);
+    }
+}
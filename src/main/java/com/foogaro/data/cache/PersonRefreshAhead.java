@@ -2,10 +2,6 @@ package com.foogaro.data.cache;
 
 import com.foogaro.data.cache.patterns.RefreshAhead;
 import com.foogaro.data.entities.Person;
-import com.foogaro.data.jpa.HibernateUtils;
-import gears.GearsBuilder;
-import gears.LogLevel;
-import gears.records.KeysReaderRecord;
 
 public class PersonRefreshAhead extends RefreshAhead {
 
@@ -18,25 +14,9 @@ public class PersonRefreshAhead extends RefreshAhead {
         return "person:*";
     }
 
-    public void onProcessEvent(KeysReaderRecord record) {
-        try {
-            GearsBuilder.acquireRedisGil();
-            GearsBuilder.log("PersonRefreshAhead.Record: [" + record + "]");
-            String key = record.getKey();
-            Long entityId = Long.parseLong(key.split(":")[1]);
-            Person person = (Person) HibernateUtils.find(Person.class, entityId);
-            if (person != null) {
-                boolean avoidNotifications = GearsBuilder.setAvoidNotifications(true);
-                //Object response = GearsBuilder.executeArray(new String[]{"HSET", "person:" + person.getId(), "name", person.getFirstname(), "lastname", person.getLastname(), "age", person.getAge() + ""});
-                Object response = GearsBuilder.executeArray(generateHSET(person,entityId+""));
-                GearsBuilder.setAvoidNotifications(avoidNotifications);
-                GearsBuilder.log("PersonRefreshAhead.GearsBuilder.executeArray " + response);
-            }
-        } catch (Throwable t) {
-            t.printStackTrace();
-        } finally {
-            GearsBuilder.releaseRedisGil();
-        }
+    @Override
+    public Class<?> getEntityClass() {
+        return Person.class;
     }
 
     public static void main(String[] args) {
@@ -2,12 +2,7 @@ package com.foogaro.data.cache;
 
 import com.foogaro.data.cache.patterns.WriteBehind;
 import com.foogaro.data.entities.Person;
-import com.foogaro.data.jpa.HibernateUtils;
-import gears.GearsBuilder;
-import gears.LogLevel;
-import gears.records.KeysReaderRecord;
-
-import java.util.Map;
+import com.foogaro.data.jpa.Backend;
 
 public class PersonWriteBehind extends WriteBehind {
 
@@ -23,21 +18,14 @@ public class PersonWriteBehind extends WriteBehind {
         return "developer:*";
     }
 
-    public void onProcessEvent(KeysReaderRecord record) {
-        try {
-            GearsBuilder.log("PersonWriteBehind.Record: [" + record + "]");
-            Map<String, String> hash = record.getHashVal();
-            Person person = new Person();
-            person.setId(Long.parseLong(record.getKey().split(":")[1]));
-            person.setFirstname(hash.get("firstname"));
-            person.setLastname(hash.get("lastname"));
-            person.setAge(Integer.parseInt(hash.get("age")));
+    @Override
+    public Class<?> getEntityClass() {
+        return Person.class;
+    }
 
-            HibernateUtils.saveOrUpdate(person);
-            GearsBuilder.log("PersonWriteBehind.Record " + record.getHashVal() + " processed.");
-        } catch (Throwable t) {
-            t.printStackTrace();
-        }
+    @Override
+    public Backend getBackend() {
+        return Backend.JDBC;
     }
 
     public static void main(String[] args) {
@@ -2,12 +2,7 @@ package com.foogaro.data.cache;
 
 import com.foogaro.data.cache.patterns.WriteThrough;
 import com.foogaro.data.entities.Person;
-import com.foogaro.data.jpa.HibernateUtils;
-import gears.GearsBuilder;
-import gears.LogLevel;
-import gears.records.KeysReaderRecord;
-
-import java.util.Map;
+import com.foogaro.data.jpa.Backend;
 
 public class PersonWriteThrough extends WriteThrough {
 
@@ -22,21 +17,14 @@ public class PersonWriteThrough extends WriteThrough {
         return "person:*";
     }
 
-    public void onProcessEvent(KeysReaderRecord record) {
-        try {
-            GearsBuilder.log("PersonWriteThrough.Record: [" + record + "]");
-            Map<String, String> hash = record.getHashVal();
-            Person person = new Person();
-            person.setId(Long.parseLong(record.getKey().split(":")[1]));
-            person.setFirstname(hash.get("firstname"));
-            person.setLastname(hash.get("lastname"));
-            person.setAge(Integer.parseInt(hash.get("age")));
-
-            HibernateUtils.saveOrUpdate(person);
-            GearsBuilder.log("PersonWriteThrough.Record " + record.getHashVal() + " processed.");
-        } catch (Throwable t) {
-            t.printStackTrace();
-        }
+    @Override
+    public Class<?> getEntityClass() {
+        return Person.class;
+    }
+
+    @Override
+    public Backend getBackend() {
+        return Backend.JDBC;
     }
 
     public static void main(String[] args) {
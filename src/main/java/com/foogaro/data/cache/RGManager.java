@@ -1,12 +1,23 @@
 package com.foogaro.data.cache;
 
+import com.foogaro.data.cache.codec.EntityCodec;
+import com.foogaro.data.cache.codec.Storage;
+import com.foogaro.data.cache.patterns.CachingPattern;
 import com.foogaro.data.cache.patterns.Pattern;
+import com.foogaro.data.cache.patterns.ReadThrough;
+import com.foogaro.data.jpa.HibernateUtils;
+import gears.ExecutionMode;
 import gears.GearsBuilder;
+import gears.GearsFuture;
+import gears.operations.AsyncForeachOperation;
 import gears.operations.ForeachOperation;
-import gears.readers.BaseReader;
-import gears.readers.KeysReader;
+import gears.readers.CommandReader;
 import gears.records.KeysReaderRecord;
 
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 
 public class RGManager {
@@ -16,8 +27,91 @@ public class RGManager {
 
         GearsBuilder gb = GearsBuilder.CreateGearsBuilder(pattern.getReader());
 
-        gb.foreach((ForeachOperation<KeysReaderRecord>) pattern::onProcessEvent);
+        if (pattern.isAsync()) {
+            gb.asyncForeach((AsyncForeachOperation<KeysReaderRecord>) record -> dispatchAsync(pattern, record));
+        } else {
+            gb.foreach((ForeachOperation<KeysReaderRecord>) record -> dispatch(pattern, record));
+        }
 
         gb.register(pattern.getExecutionMode(), pattern::onRegistered, pattern::onUnregistered);
     }
+
+    /**
+     * Registers the patterns declared with {@link Cached} on the given entities, each on the keys of its entity.
+     * Entities with compact storage also get their fields served by the {@code ENTITY} trigger.
+     */
+    public static void register(Class<?>... entityClasses) {
+        java.util.logging.Logger.getLogger("org.hibernate").setLevel(Level.OFF);
+
+        Map<String, PatternRouter> routers = new LinkedHashMap<>();
+        EntityAccessor accessor = new EntityAccessor();
+        for (Class<?> entityClass : entityClasses) {
+            Cached cached = entityClass.getAnnotation(Cached.class);
+            if (cached == null) throw new IllegalArgumentException(entityClass.getName() + " is not annotated with @Cached");
+            HibernateUtils.map(entityClass);
+            String keyPrefix = EntityCodec.of(entityClass).getKeyPrefix();
+            ReadThrough reader = null;
+            for (CachingPattern cachingPattern : cached.patterns()) {
+                Pattern pattern = cachingPattern.create(entityClass);
+                routers.computeIfAbsent(registrationOf(pattern), k -> new PatternRouter()).add(keyPrefix, pattern);
+                if (pattern instanceof ReadThrough) reader = (ReadThrough) pattern;
+            }
+            if (cached.storage() == Storage.COMPACT) accessor.add(entityClass, reader);
+        }
+
+        if (!accessor.isEmpty()) {
+            GearsBuilder<Object[]> gb = GearsBuilder.CreateGearsBuilder(new CommandReader().setTrigger(EntityAccessor.TRIGGER));
+            gb.map(accessor).register(ExecutionMode.SYNC);
+        }
+
+        for (PatternRouter router : routers.values()) {
+            router.getPatterns().forEach(RGManager::register);
+        }
+    }
+
+    /**
+     * Registers the pattern on the keys of its entity only: {@code <prefix>:*}, leaving out the keys of any other
+     * entity whose prefix extends this one.
+     */
+    private static void register(String keyPrefix, Pattern pattern) {
+        GearsBuilder gb = GearsBuilder.CreateGearsBuilder(pattern.getReader(keyPrefix + ":*"));
+
+        if (pattern.isAsync()) {
+            gb.asyncForeach((AsyncForeachOperation<KeysReaderRecord>) record ->
+                    PatternRouter.routes(keyPrefix, record.getKey()) ? dispatchAsync(pattern, record) : done(record));
+        } else {
+            gb.foreach((ForeachOperation<KeysReaderRecord>) record -> {
+                if (PatternRouter.routes(keyPrefix, record.getKey())) dispatch(pattern, record);
+            });
+        }
+
+        gb.register(pattern.getExecutionMode(), pattern::onRegistered, pattern::onUnregistered);
+    }
+
+    /**
+     * The kind of the pattern, with its execution and events: two of a kind cannot handle the same key prefix.
+     */
+    private static String registrationOf(Pattern pattern) {
+        return pattern.getClass().getName() + "|" + pattern.getExecutionMode() + "|" + pattern.isAsync()
+                + "|" + Arrays.toString(pattern.getEventsType()) + "|" + Arrays.toString(pattern.getCommands());
+    }
+
+    static void dispatch(Pattern pattern, KeysReaderRecord record) {
+        long start = System.nanoTime();
+        try {
+            pattern.onProcessEvent(record);
+        } finally {
+            pattern.metrics().event(System.nanoTime() - start);
+        }
+    }
+
+    static GearsFuture<Serializable> dispatchAsync(Pattern pattern, KeysReaderRecord record) throws Exception {
+        return pattern.onProcessEventAsync(record);
+    }
+
+    private static GearsFuture<Serializable> done(KeysReaderRecord record) throws Exception {
+        GearsFuture<Serializable> done = new GearsFuture<>();
+        done.setResult(record);
+        return done;
+    }
 }
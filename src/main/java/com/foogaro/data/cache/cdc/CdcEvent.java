@@ -0,0 +1,76 @@
+package com.foogaro.data.cache.cdc;
+
+/**
+ * A decoded Debezium change event: the operation, the id of the changed row, the row after the change
+ * (null for deletes) and the position of the change in the source binlog.
+ */
+public class CdcEvent {
+
+    public static final char CREATE = 'c';
+    public static final char UPDATE = 'u';
+    public static final char DELETE = 'd';
+    public static final char READ = 'r';
+
+    char op;
+    String id;
+    Object entity;
+    String file;
+    long pos = -1;
+    long row;
+    long tsMs;
+
+    public char getOp() {
+        return op;
+    }
+
+    public boolean isDelete() {
+        return op == DELETE || entity == null;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Object getEntity() {
+        return entity;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public long getPos() {
+        return pos;
+    }
+
+    public long getRow() {
+        return row;
+    }
+
+    public long getTsMs() {
+        return tsMs;
+    }
+
+    /**
+     * The binlog position of the change as a fixed-width string, so that positions compare lexicographically;
+     * null when the source carries no position.
+     */
+    public String getPosition() {
+        if (file == null || pos < 0) return null;
+        long sequence = Long.parseLong(file.substring(file.lastIndexOf('.') + 1));
+        return String.format("%010d:%019d:%010d", sequence, pos, row);
+    }
+
+    @Override
+    public String toString() {
+        return "CdcEvent{" +
+                "op=" + op +
+                ", id='" + id + '\'' +
+                ", entity=" + entity +
+                ", file='" + file + '\'' +
+                ", pos=" + pos +
+                ", row=" + row +
+                ", tsMs=" + tsMs +
+                '}';
+    }
+}
@@ -0,0 +1,132 @@
+package com.foogaro.data.cache.cdc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.foogaro.data.cache.codec.EntityCodec;
+
+import java.io.IOException;
+
+/**
+ * Decodes Debezium change events, as written by the Redis sink, in a single streaming pass:
+ * the row after the change is decoded straight into the entity through its codec, the schema is skipped,
+ * and no intermediate JSON tree or string is built. Works with and without the schema envelope.
+ */
+public final class DebeziumDecoder {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private DebeziumDecoder() {
+    }
+
+    /**
+     * Decodes a stream entry made of the Debezium key and value; returns null for tombstones.
+     */
+    public static <T> CdcEvent decode(EntityCodec<T> codec, String key, String value) throws IOException {
+        if (value == null || value.isEmpty() || value.charAt(0) != '{') return null;
+        CdcEvent event = new CdcEvent();
+        try (JsonParser parser = JSON.createParser(value)) {
+            parser.nextToken();
+            readEnvelope(parser, codec, event);
+        }
+        if (event.op == 0) return null;
+        if (event.id == null && key != null && !key.isEmpty() && key.charAt(0) == '{') {
+            try (JsonParser parser = JSON.createParser(key)) {
+                parser.nextToken();
+                event.id = readId(parser, codec.getIdName());
+            }
+        }
+        return event;
+    }
+
+    private static <T> void readEnvelope(JsonParser parser, EntityCodec<T> codec, CdcEvent event) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (name) {
+                case "payload":
+                    if (token == JsonToken.START_OBJECT) readEnvelope(parser, codec, event);
+                    break;
+                case "op":
+                    event.op = parser.getText().charAt(0);
+                    break;
+                case "before":
+                    if (token == JsonToken.START_OBJECT) {
+                        String id = readId(parser, codec.getIdName());
+                        if (event.id == null) event.id = id;
+                    }
+                    break;
+                case "after":
+                    if (token == JsonToken.START_OBJECT) {
+                        T entity = codec.newInstance();
+                        String id = readEntity(parser, codec, entity);
+                        event.entity = entity;
+                        if (id != null) event.id = id;
+                    }
+                    break;
+                case "source":
+                    if (token == JsonToken.START_OBJECT) readSource(parser, event);
+                    break;
+                case "ts_ms":
+                    event.tsMs = parser.getLongValue();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    private static <T> String readEntity(JsonParser parser, EntityCodec<T> codec, T entity) throws IOException {
+        String idName = codec.getIdName();
+        String id = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token.isStructStart()) {
+                parser.skipChildren();
+                continue;
+            }
+            String value = token == JsonToken.VALUE_NULL ? null : parser.getText();
+            if (name.equals(idName)) id = value;
+            codec.decodeField(entity, name, value);
+        }
+        return id;
+    }
+
+    private static String readId(JsonParser parser, String idName) throws IOException {
+        String id = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (name.equals("payload") && token == JsonToken.START_OBJECT) {
+                String nested = readId(parser, idName);
+                if (nested != null) id = nested;
+            } else if (name.equals(idName) && token.isScalarValue()) {
+                id = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return id;
+    }
+
+    private static void readSource(JsonParser parser, CdcEvent event) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (name) {
+                case "file":
+                    event.file = token == JsonToken.VALUE_NULL ? null : parser.getText();
+                    break;
+                case "pos":
+                    if (token.isNumeric()) event.pos = parser.getLongValue();
+                    break;
+                case "row":
+                    if (token.isNumeric()) event.row = parser.getLongValue();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+}
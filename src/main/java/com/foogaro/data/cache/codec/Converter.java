@@ -0,0 +1,77 @@
+package com.foogaro.data.cache.codec;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.function.Function;
+
+/**
+ * String conversion of a single field type, as stored in a Redis hash.
+ */
+abstract class Converter {
+
+    static Converter of(Class<?> type) {
+        if (type == String.class) return new Converter() {
+            @Override
+            Object parse(String value) {
+                return value;
+            }
+
+            @Override
+            Object decode(String value) {
+                return value;
+            }
+        };
+        if (type == long.class || type == Long.class) return parsing(Long::valueOf);
+        if (type == int.class || type == Integer.class) return parsing(Integer::valueOf);
+        if (type == short.class || type == Short.class) return parsing(Short::valueOf);
+        if (type == byte.class || type == Byte.class) return parsing(Byte::valueOf);
+        if (type == double.class || type == Double.class) return parsing(Double::valueOf);
+        if (type == float.class || type == Float.class) return parsing(Float::valueOf);
+        if (type == boolean.class || type == Boolean.class) return parsing(Boolean::valueOf);
+        if (type == char.class || type == Character.class) return parsing(value -> value.charAt(0));
+        if (type == BigDecimal.class) return parsing(BigDecimal::new);
+        if (type == BigInteger.class) return parsing(BigInteger::new);
+        if (type == LocalDate.class) return parsing(LocalDate::parse);
+        if (type == LocalDateTime.class) return parsing(LocalDateTime::parse);
+        if (type == Instant.class) return parsing(Instant::parse);
+        if (type.isEnum()) return new Converter() {
+            @Override
+            Object parse(String value) {
+                return enumValue(type, value);
+            }
+
+            @Override
+            String encode(Object value) {
+                return ((Enum<?>) value).name();
+            }
+        };
+        throw new IllegalArgumentException("Unsupported field type " + type.getName());
+    }
+
+    private static Converter parsing(Function<String, Object> parser) {
+        return new Converter() {
+            @Override
+            Object parse(String value) {
+                return parser.apply(value);
+            }
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object enumValue(Class type, String value) {
+        return Enum.valueOf(type, value);
+    }
+
+    abstract Object parse(String value);
+
+    String encode(Object value) {
+        return value.toString();
+    }
+
+    Object decode(String value) {
+        return value == null || value.isEmpty() ? null : parse(value);
+    }
+}
@@ -0,0 +1,357 @@
+package com.foogaro.data.cache.codec;
+
+import com.foogaro.data.cache.Cached;
+import javax.persistence.Id;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps an entity to and from its Redis representation, a hash or a compact string depending on its {@link Storage}.
+ * Field accessors and conversions are resolved once per entity class, so encoding and decoding never go
+ * through reflection. In a hash, null values are stored as empty strings, and empty or missing values are decoded
+ * as null, or left to their default for primitive fields.
+ * <p>
+ * A compact value starts with the format version and a tag of the field layout, followed by every field but the id,
+ * in declaration order, each preceded by a unit separator (0x1F). A null field is a record separator (0x1E),
+ * and optional metadata, such as a CDC position, follows a file separator (0x1C). Separators within values are
+ * escaped with a group separator (0x1D). Values are only ever written and read as strings by RedisGears, so the
+ * encoding keeps to text: numbers and dates keep their string form, the savings come from dropping field names
+ * and the per-field overhead of the hash.
+ */
+public final class EntityCodec<T> {
+
+    private static final ClassValue<EntityCodec<?>> CODECS = new ClassValue<>() {
+        @Override
+        protected EntityCodec<?> computeValue(Class<?> type) {
+            return new EntityCodec<>(type);
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    public static <T> EntityCodec<T> of(Class<T> type) {
+        return (EntityCodec<T>) CODECS.get(type);
+    }
+
+    private final Class<T> type;
+    private final String keyPrefix;
+    private final MethodHandle constructor;
+    private final FieldCodec[] fields;
+    private final Map<String, FieldCodec> fieldsByName;
+    private final FieldCodec id;
+    private final Storage storage;
+    private final FieldCodec[] values;
+    private final String layout;
+
+    private static final char VERSION = '1';
+    private static final char METADATA = '\u001C';
+    private static final char ESCAPE = '\u001D';
+    private static final char NULL = '\u001E';
+    private static final char FIELD = '\u001F';
+
+    private EntityCodec(Class<T> type) {
+        this.type = type;
+        Cached cached = type.getAnnotation(Cached.class);
+        this.keyPrefix = cached != null && !cached.keyPrefix().isEmpty() ? cached.keyPrefix() : type.getSimpleName().toLowerCase();
+        this.storage = cached != null ? cached.storage() : Storage.HASH;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            this.constructor = lookup.findConstructor(type, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            List<FieldCodec> codecs = new ArrayList<>();
+            FieldCodec idField = null;
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) continue;
+                FieldCodec codec = new FieldCodec(field, lookup);
+                codecs.add(codec);
+                if (field.isAnnotationPresent(Id.class) || (idField == null && field.getName().equals("id"))) idField = codec;
+            }
+            this.fields = codecs.toArray(new FieldCodec[0]);
+            this.fieldsByName = new HashMap<>();
+            for (FieldCodec codec : fields) fieldsByName.put(codec.name, codec);
+            this.id = idField;
+            codecs.remove(idField);
+            this.values = codecs.toArray(new FieldCodec[0]);
+            this.layout = layoutOf(values);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot build codec for " + type.getName(), e);
+        }
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public String keyOf(Object entityId) {
+        return keyPrefix + ":" + entityId;
+    }
+
+    /**
+     * Parses the entity id from the last segment of the key, converted to the type of the id field.
+     */
+    public Object idOf(String key) {
+        String value = key.substring(key.lastIndexOf(':') + 1);
+        return id != null ? id.converter.decode(value) : value;
+    }
+
+    public String getIdName() {
+        return id != null ? id.name : null;
+    }
+
+    public Object getId(T entity) {
+        return id != null ? id.get(entity) : null;
+    }
+
+    public String[] fieldNames() {
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) names[i] = fields[i].name;
+        return names;
+    }
+
+    /**
+     * Encodes the entity as the arguments of an HSET command on the given key.
+     */
+    public String[] encode(String key, T entity) {
+        String[] command = new String[2 + fields.length * 2];
+        command[0] = "HSET";
+        command[1] = key;
+        int i = 2;
+        for (FieldCodec field : fields) {
+            command[i++] = field.name;
+            command[i++] = field.encode(entity);
+        }
+        return command;
+    }
+
+    /**
+     * Encodes the entity as the command writing it to the given key in the entity's storage: HSET or SET.
+     */
+    public String[] write(String key, T entity) {
+        return storage == Storage.COMPACT ? new String[]{"SET", key, compact(entity, null)} : encode(key, entity);
+    }
+
+    /**
+     * Encodes the entity as a compact value, followed by the metadata if not null.
+     */
+    public String compact(T entity, String metadata) {
+        StringBuilder value = new StringBuilder(16 + values.length * 12);
+        value.append(VERSION).append(layout);
+        for (FieldCodec field : values) {
+            value.append(FIELD);
+            Object fieldValue = field.get(entity);
+            if (fieldValue == null) value.append(NULL);
+            else escape(field.converter.encode(fieldValue), value);
+        }
+        if (metadata != null) escape(metadata, value.append(METADATA));
+        return value.toString();
+    }
+
+    /**
+     * Decodes a compact value into a new entity, taking the id from the key. Returns null if the value is not
+     * a compact value of this version and field layout, as after a change of the entity class.
+     */
+    public T decompact(String key, String value) {
+        String[] segments = split(value);
+        if (segments == null) return null;
+        T entity = newInstance();
+        if (id != null) id.set(entity, idOf(key));
+        for (int i = 0; i < values.length; i++) {
+            values[i].set(entity, segments[i] != null ? values[i].converter.parse(segments[i]) : null);
+        }
+        return entity;
+    }
+
+    /**
+     * The fields of a compact value but the id, as they would be stored in a hash, without the null ones;
+     * null if the value is not a compact value of this version and field layout.
+     */
+    public Map<String, String> fields(String value) {
+        String[] segments = split(value);
+        if (segments == null) return null;
+        Map<String, String> hash = new HashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            if (segments[i] != null) hash.put(values[i].name, segments[i]);
+        }
+        return hash;
+    }
+
+    /**
+     * The metadata of a compact value, or null.
+     */
+    public String metadataOf(String value) {
+        String[] segments = split(value);
+        return segments != null ? segments[values.length] : null;
+    }
+
+    /**
+     * Position of the field named by the given bytes, as sent by a client, compared without decoding them;
+     * -1 for an unknown field.
+     */
+    public int fieldIndex(byte[] name) {
+        for (int i = 0; i < fields.length; i++) {
+            if (Arrays.equals(fields[i].nameBytes, name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes the field at the given position as a string; null for a null value.
+     */
+    public String encodeField(T entity, int index) {
+        Object value = fields[index].get(entity);
+        return value != null ? fields[index].converter.encode(value) : null;
+    }
+
+    /**
+     * Encodes a single field of the entity as a string, as stored in a hash; null for a null value or an unknown field.
+     */
+    public String encodeField(T entity, String name) {
+        FieldCodec field = fieldsByName.get(name);
+        if (field == null) return null;
+        Object value = field.get(entity);
+        return value != null ? field.converter.encode(value) : null;
+    }
+
+    private static void escape(String text, StringBuilder out) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= METADATA && c <= FIELD) out.append(ESCAPE);
+            out.append(c);
+        }
+    }
+
+    /**
+     * Splits a compact value into the unescaped value of each field, null for null fields, followed by the metadata.
+     */
+    private String[] split(String value) {
+        int start = 1 + layout.length();
+        if (value == null || value.length() < start || value.charAt(0) != VERSION || !value.startsWith(layout, 1)) {
+            return null;
+        }
+        String[] segments = new String[values.length + 1];
+        StringBuilder segment = new StringBuilder();
+        int index = -1;
+        boolean isNull = false;
+        for (int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == FIELD || c == METADATA) {
+                if (index >= 0) segments[index] = isNull ? null : segment.toString();
+                if (index == values.length) return null;
+                index = c == FIELD ? index + 1 : values.length;
+                if (index == values.length && c == FIELD) return null;
+                segment.setLength(0);
+                isNull = false;
+            } else if (c == NULL) {
+                isNull = true;
+            } else {
+                if (c == ESCAPE && i + 1 < value.length()) c = value.charAt(++i);
+                segment.append(c);
+            }
+        }
+        if (index >= 0) segments[index] = isNull ? null : segment.toString();
+        return index >= values.length - 1 ? segments : null;
+    }
+
+    /**
+     * A short tag of the names and types of the fields, so that values written before a change of the entity class
+     * are not decoded into the wrong fields.
+     */
+    private static String layoutOf(FieldCodec[] fields) {
+        int hash = 0;
+        for (FieldCodec field : fields) hash = 31 * hash + (field.name + ":" + field.type.getName()).hashCode();
+        String tag = Integer.toString(Math.floorMod(hash, 36 * 36 * 36 * 36), 36);
+        return "0000".substring(tag.length()) + tag;
+    }
+
+    /**
+     * Decodes the hash into a new entity, taking the id from the key.
+     */
+    public T decode(String key, Map<String, String> hash) {
+        T entity = newInstance();
+        for (FieldCodec field : fields) {
+            if (field == id) field.set(entity, idOf(key));
+            else field.decode(entity, hash.get(field.name));
+        }
+        return entity;
+    }
+
+    /**
+     * Sets a single field from its string value; unknown fields are ignored.
+     */
+    public void decodeField(T entity, String name, String value) {
+        FieldCodec field = fieldsByName.get(name);
+        if (field != null) field.decode(entity, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public T newInstance() {
+        try {
+            return (T) constructor.invokeExact();
+        } catch (Throwable t) {
+            throw new IllegalStateException("Cannot instantiate " + type.getName(), t);
+        }
+    }
+
+    private static final class FieldCodec {
+
+        private final String name;
+        private final byte[] nameBytes;
+        private final Class<?> type;
+        private final boolean primitive;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+        private final Converter converter;
+
+        private FieldCodec(Field field, MethodHandles.Lookup lookup) throws IllegalAccessException {
+            this.name = field.getName();
+            this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            this.type = field.getType();
+            this.primitive = field.getType().isPrimitive();
+            this.getter = lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+            this.setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+            this.converter = Converter.of(field.getType());
+        }
+
+        private Object get(Object entity) {
+            try {
+                return getter.invokeExact(entity);
+            } catch (Throwable t) {
+                throw new IllegalStateException("Cannot read field " + name, t);
+            }
+        }
+
+        private void set(Object entity, Object value) {
+            if (value == null && primitive) return;
+            try {
+                setter.invokeExact(entity, value);
+            } catch (Throwable t) {
+                throw new IllegalStateException("Cannot write field " + name, t);
+            }
+        }
+
+        private String encode(Object entity) {
+            Object value = get(entity);
+            return value != null ? converter.encode(value) : "";
+        }
+
+        private void decode(Object entity, String value) {
+            set(entity, converter.decode(value));
+        }
+    }
+}
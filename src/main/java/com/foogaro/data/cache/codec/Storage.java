@@ -0,0 +1,18 @@
+package com.foogaro.data.cache.codec;
+
+/**
+ * How an entity is laid out in Redis.
+ */
+public enum Storage {
+
+    /**
+     * A hash with one field per entity field, readable and writable with the hash commands.
+     */
+    HASH,
+
+    /**
+     * A single string holding the field values in declaration order, without field names: a fraction of the
+     * memory of a hash. Fields are read and written through the {@code ENTITY} trigger.
+     */
+    COMPACT
+}
@@ -0,0 +1,70 @@
+package com.foogaro.data.cache.metrics;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Lock-free log-linear histogram of non-negative values: exact below 16, then eight buckets per power of two,
+ * so any percentile is reported within 12.5% of the recorded value. Recording is one atomic increment.
+ */
+public class Histogram {
+
+    private static final int LINEAR = 16;
+    private static final int SUB_BUCKETS = 8;
+    private static final int BUCKETS = LINEAR + (63 - 4) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(index(value));
+        max.accumulate(value);
+    }
+
+    private static int index(long value) {
+        if (value < LINEAR) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int index) {
+        if (index < LINEAR) return index;
+        int exponent = (index - LINEAR) / SUB_BUCKETS + 4;
+        int sub = (index - LINEAR) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 3)) - 1;
+    }
+
+    /**
+     * Adds count, percentiles and max of the values recorded since the previous call to the map,
+     * under the given prefix, and starts over.
+     */
+    public void drainTo(String prefix, Map<String, String> stats) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.getAndSet(i, 0);
+            total += snapshot[i];
+        }
+        long highest = max.getThenReset();
+        stats.put(prefix + ".count", String.valueOf(total));
+        stats.put(prefix + ".p50", String.valueOf(percentile(snapshot, total, 0.50, highest)));
+        stats.put(prefix + ".p90", String.valueOf(percentile(snapshot, total, 0.90, highest)));
+        stats.put(prefix + ".p99", String.valueOf(percentile(snapshot, total, 0.99, highest)));
+        stats.put(prefix + ".p999", String.valueOf(percentile(snapshot, total, 0.999, highest)));
+        stats.put(prefix + ".max", String.valueOf(highest));
+    }
+
+    private static long percentile(long[] snapshot, long total, double percentile, long highest) {
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(upperBound(i), highest);
+        }
+        return highest;
+    }
+}
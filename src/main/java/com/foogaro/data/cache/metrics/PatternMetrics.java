@@ -0,0 +1,67 @@
+package com.foogaro.data.cache.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of a registered pattern. Counters are cumulative, latencies are reported
+ * in microseconds for the interval since the previous {@link #toMap()}.
+ */
+public class PatternMetrics {
+
+    private final LongAdder events = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final Histogram total = new Histogram();
+    private final Histogram database = new Histogram();
+    private final Histogram redis = new Histogram();
+    private final Histogram batchSize = new Histogram();
+
+    /**
+     * An event processed, from its dispatch until the pattern is done with it.
+     */
+    public void event(long nanos) {
+        events.increment();
+        total.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void error() {
+        errors.increment();
+    }
+
+    public void hit() {
+        hits.increment();
+    }
+
+    public void miss() {
+        misses.increment();
+    }
+
+    public void database(long nanos) {
+        database.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void redis(long nanos) {
+        redis.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void batch(int size) {
+        batchSize.record(size);
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("events", String.valueOf(events.sum()));
+        stats.put("errors", String.valueOf(errors.sum()));
+        stats.put("hits", String.valueOf(hits.sum()));
+        stats.put("misses", String.valueOf(misses.sum()));
+        total.drainTo("total.micros", stats);
+        database.drainTo("db.micros", stats);
+        redis.drainTo("redis.micros", stats);
+        batchSize.drainTo("batch.size", stats);
+        return stats;
+    }
+}
@@ -0,0 +1,154 @@
+package com.foogaro.data.cache.patterns;
+
+import gears.GearsBuilder;
+import gears.GearsFuture;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs event processing on a bounded worker pool, off the Redis main thread, completing a {@link GearsFuture}
+ * that keeps the client suspended meanwhile. A call not done within its timeout, or rejected because the pool is
+ * saturated, is completed with the fallback instead; the work itself keeps running but can no longer reply.
+ */
+public class AsyncExecutor {
+
+    private static final ThreadLocal<Call> CURRENT = new ThreadLocal<>();
+
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService timer;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public interface Work {
+        void run() throws Exception;
+    }
+
+    private static final class Call {
+        private static final int RUNNING = 0, REPLYING = 1, DONE = 2;
+
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
+        private final GearsFuture<Serializable> future = new GearsFuture<>();
+        private ScheduledFuture<?> timeout;
+    }
+
+    public AsyncExecutor(String name, int threads, int queueSize) {
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> daemon(r, name + "-async"));
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, name + "-async-timer"));
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Whether the calling work may still reply to the client, claiming the reply if so: false once its call
+     * was completed by the fallback. Work not running on this executor may always reply.
+     */
+    public static boolean claimReply() {
+        Call call = CURRENT.get();
+        return call == null || call.state.compareAndSet(Call.RUNNING, Call.REPLYING);
+    }
+
+    public GearsFuture<Serializable> submit(Serializable result, Work work, long timeoutMillis, Runnable fallback) throws Exception {
+        Call call = new Call();
+        submitted.increment();
+        try {
+            workers.execute(() -> run(call, result, work));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            call.state.set(Call.DONE);
+            fallback.run();
+            call.future.setResult(result);
+            return call.future;
+        }
+        call.timeout = timer.schedule(() -> expire(call, result, fallback), timeoutMillis, TimeUnit.MILLISECONDS);
+        return call.future;
+    }
+
+    private void run(Call call, Serializable result, Work work) {
+        CURRENT.set(call);
+        try {
+            work.run();
+            if (finish(call)) {
+                completed.increment();
+                call.future.setResult(result);
+            }
+        } catch (Exception e) {
+            failed.increment();
+            if (finish(call)) {
+                try {
+                    call.future.setError(String.valueOf(e.getMessage()));
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        } finally {
+            CURRENT.remove();
+        }
+    }
+
+    private boolean finish(Call call) {
+        if (call.state.compareAndSet(Call.RUNNING, Call.DONE) || call.state.compareAndSet(Call.REPLYING, Call.DONE)) {
+            if (call.timeout != null) call.timeout.cancel(false);
+            return true;
+        }
+        return false;
+    }
+
+    private void expire(Call call, Serializable result, Runnable fallback) {
+        if (!call.state.compareAndSet(Call.RUNNING, Call.DONE)) return;
+        timedOut.increment();
+        try {
+            // the fallback may call Redis, and runs on the timer thread: the GIL is not held there
+            GearsBuilder.acquireRedisGil();
+            try {
+                fallback.run();
+            } finally {
+                GearsBuilder.releaseRedisGil();
+            }
+            call.future.setResult(result);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void close() {
+        timer.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("submitted", String.valueOf(submitted.sum()));
+        stats.put("completed", String.valueOf(completed.sum()));
+        stats.put("timedOut", String.valueOf(timedOut.sum()));
+        stats.put("rejected", String.valueOf(rejected.sum()));
+        stats.put("failed", String.valueOf(failed.sum()));
+        stats.put("active", String.valueOf(workers.getActiveCount()));
+        stats.put("queued", String.valueOf(workers.getQueue().size()));
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncExecutor" + toMap();
+    }
+}
@@ -0,0 +1,93 @@
+package com.foogaro.data.cache.patterns;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Groups the keys requested while a load is in progress, or within the batching window, into a single bulk load.
+ * The caller that finds no load in progress becomes the leader and keeps loading batches until none is pending,
+ * so the number of round trips grows with the number of batches rather than the number of keys.
+ */
+public class BatchLoader {
+
+    private final Function<List<String>, Map<String, Object>> loader;
+    private final int maxBatchSize;
+    private final long windowMillis;
+    private final Object lock = new Object();
+    private Map<String, CompletableFuture<Object>> pending = new LinkedHashMap<>();
+    private boolean loading;
+
+    private final LongAdder keys = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    public BatchLoader(int maxBatchSize, long windowMillis, Function<List<String>, Map<String, Object>> loader) {
+        this.maxBatchSize = maxBatchSize;
+        this.windowMillis = windowMillis;
+        this.loader = loader;
+    }
+
+    public Object load(String key, long timeoutMillis) throws Exception {
+        CompletableFuture<Object> future;
+        boolean leader;
+        synchronized (lock) {
+            future = pending.computeIfAbsent(key, k -> new CompletableFuture<>());
+            leader = !loading;
+            loading = true;
+        }
+        if (leader) {
+            if (windowMillis > 0) TimeUnit.MILLISECONDS.sleep(windowMillis);
+            loadPending();
+        }
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private void loadPending() {
+        while (true) {
+            Map<String, CompletableFuture<Object>> batch = new LinkedHashMap<>();
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    loading = false;
+                    return;
+                }
+                Iterator<Map.Entry<String, CompletableFuture<Object>>> it = pending.entrySet().iterator();
+                while (it.hasNext() && batch.size() < maxBatchSize) {
+                    Map.Entry<String, CompletableFuture<Object>> entry = it.next();
+                    batch.put(entry.getKey(), entry.getValue());
+                    it.remove();
+                }
+            }
+            keys.add(batch.size());
+            batches.increment();
+            try {
+                Map<String, Object> loaded = loader.apply(new ArrayList<>(batch.keySet()));
+                batch.forEach((key, future) -> future.complete(loaded.get(key)));
+            } catch (Throwable t) {
+                batch.values().forEach(future -> future.completeExceptionally(t));
+            }
+        }
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("keys", String.valueOf(keys.sum()));
+        stats.put("batches", String.valueOf(batches.sum()));
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchLoader" + toMap();
+    }
+}
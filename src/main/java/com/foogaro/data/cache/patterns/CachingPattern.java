@@ -0,0 +1,24 @@
+package com.foogaro.data.cache.patterns;
+
+import java.util.function.Function;
+
+/**
+ * The caching patterns that can be declared on an entity with {@link com.foogaro.data.cache.Cached}.
+ */
+public enum CachingPattern {
+
+    READ_THROUGH(ReadThrough::new),
+    WRITE_THROUGH(WriteThrough::new),
+    WRITE_BEHIND(WriteBehind::new),
+    REFRESH_AHEAD(RefreshAhead::new);
+
+    private final Function<Class<?>, Pattern> factory;
+
+    CachingPattern(Function<Class<?>, Pattern> factory) {
+        this.factory = factory;
+    }
+
+    public Pattern create(Class<?> entityClass) {
+        return factory.apply(entityClass);
+    }
+}
@@ -0,0 +1,201 @@
+package com.foogaro.data.cache.patterns;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Guards the database calls of a pattern. Calls are counted over a rolling window: once it holds enough of them
+ * and the rate of failed or slow calls crosses its threshold, the breaker opens and calls fail fast with
+ * {@link OpenException}. After the open period a few probe calls are let through: the breaker closes if they all
+ * succeed in time, and opens again otherwise.
+ * Every change of state is handed to the publisher, off the calling thread.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    public static class OpenException extends RuntimeException {
+        public OpenException(String name) {
+            super("Circuit breaker " + name + " is open");
+        }
+    }
+
+    private static final int BUCKETS = 10;
+
+    private final String name;
+    private final long bucketMillis;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final double slowCallRateThreshold;
+    private final long openMillis;
+    private final int halfOpenProbes;
+    private final Consumer<Map<String, String>> publisher;
+    private final ExecutorService publishing;
+
+    private final long[] bucketEpochs = new long[BUCKETS];
+    private final int[] bucketCalls = new int[BUCKETS];
+    private final int[] bucketFailures = new int[BUCKETS];
+    private final int[] bucketSlow = new int[BUCKETS];
+
+    private State state = State.CLOSED;
+    private long stateSince = System.currentTimeMillis();
+    private int probesInFlight;
+    private int probesSucceeded;
+    private long trips;
+    private final LongAdder rejected = new LongAdder();
+
+    public CircuitBreaker(String name, long windowMillis, int minimumCalls, double failureRateThreshold,
+                          long slowCallMillis, double slowCallRateThreshold, long openMillis, int halfOpenProbes,
+                          Consumer<Map<String, String>> publisher) {
+        this.name = name;
+        this.bucketMillis = Math.max(1, windowMillis / BUCKETS);
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openMillis = openMillis;
+        this.halfOpenProbes = halfOpenProbes;
+        this.publisher = publisher;
+        this.publishing = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, name + "-breaker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        publish();
+    }
+
+    public <T> T call(Supplier<T> call) {
+        boolean probe = acquire();
+        long start = System.nanoTime();
+        try {
+            T value = call.get();
+            record(probe, System.nanoTime() - start, false);
+            return value;
+        } catch (RuntimeException | Error e) {
+            record(probe, System.nanoTime() - start, true);
+            throw e;
+        }
+    }
+
+    /**
+     * Lets the call through, or throws if the breaker is open; returns whether the call is a half-open probe.
+     */
+    private synchronized boolean acquire() {
+        if (state == State.OPEN && System.currentTimeMillis() - stateSince >= openMillis) {
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.CLOSED) return false;
+        if (state == State.HALF_OPEN && probesInFlight < halfOpenProbes) {
+            probesInFlight++;
+            return true;
+        }
+        rejected.increment();
+        throw new OpenException(name);
+    }
+
+    private synchronized void record(boolean probe, long elapsedNanos, boolean failed) {
+        boolean slow = elapsedNanos >= slowCallNanos;
+        if (probe) {
+            if (state != State.HALF_OPEN) return;
+            if (failed || slow) {
+                trip();
+            } else if (++probesSucceeded >= halfOpenProbes) {
+                transition(State.CLOSED);
+            }
+            return;
+        }
+        if (state != State.CLOSED) return;
+        int bucket = bucket(System.currentTimeMillis());
+        bucketCalls[bucket]++;
+        if (failed) bucketFailures[bucket]++;
+        if (slow) bucketSlow[bucket]++;
+        long[] totals = totals();
+        if (totals[0] >= minimumCalls
+                && (totals[1] >= failureRateThreshold * totals[0] || totals[2] >= slowCallRateThreshold * totals[0])) {
+            trip();
+        }
+    }
+
+    private int bucket(long now) {
+        long epoch = now / bucketMillis;
+        int bucket = (int) (epoch % BUCKETS);
+        if (bucketEpochs[bucket] != epoch) {
+            bucketEpochs[bucket] = epoch;
+            bucketCalls[bucket] = 0;
+            bucketFailures[bucket] = 0;
+            bucketSlow[bucket] = 0;
+        }
+        return bucket;
+    }
+
+    private long[] totals() {
+        long oldest = System.currentTimeMillis() / bucketMillis - BUCKETS;
+        long[] totals = new long[3];
+        for (int i = 0; i < BUCKETS; i++) {
+            if (bucketEpochs[i] <= oldest) continue;
+            totals[0] += bucketCalls[i];
+            totals[1] += bucketFailures[i];
+            totals[2] += bucketSlow[i];
+        }
+        return totals;
+    }
+
+    private void trip() {
+        trips++;
+        transition(State.OPEN);
+    }
+
+    private void transition(State next) {
+        state = next;
+        stateSince = System.currentTimeMillis();
+        probesInFlight = 0;
+        probesSucceeded = 0;
+        if (next == State.CLOSED) Arrays.fill(bucketEpochs, 0);
+        publish();
+    }
+
+    private void publish() {
+        Map<String, String> snapshot = toMap();
+        publishing.execute(() -> {
+            try {
+                publisher.accept(snapshot);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public void close() {
+        publishing.shutdown();
+    }
+
+    public synchronized Map<String, String> toMap() {
+        long[] totals = totals();
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("state", state.name());
+        stats.put("since", String.valueOf(stateSince));
+        stats.put("trips", String.valueOf(trips));
+        stats.put("rejected", String.valueOf(rejected.sum()));
+        stats.put("calls", String.valueOf(totals[0]));
+        stats.put("failures", String.valueOf(totals[1]));
+        stats.put("slow", String.valueOf(totals[2]));
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker" + toMap();
+    }
+}
@@ -0,0 +1,91 @@
+package com.foogaro.data.cache.patterns;
+
+import gears.GearsBuilder;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The hash slots owned by this shard, as RedisGears reports them. Keys written from a source that is not sharded,
+ * such as the database, must be checked against them: a shard can create keys of any slot, which clients reading
+ * through the cluster would never find.
+ */
+final class ClusterSlots {
+
+    static final int SLOTS = 16384;
+
+    private static final int[] CRC16 = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            CRC16[i] = crc & 0xFFFF;
+        }
+    }
+
+    private final int minSlot;
+    private final int maxSlot;
+
+    private ClusterSlots(int minSlot, int maxSlot) {
+        this.minSlot = minSlot;
+        this.maxSlot = maxSlot;
+    }
+
+    /**
+     * The slots of this shard; all of them outside cluster mode. Must be called holding the Redis GIL.
+     */
+    static ClusterSlots local() {
+        Object info = GearsBuilder.executeArray(new String[]{"RG.INFOCLUSTER"});
+        if (!(info instanceof Object[])) return new ClusterSlots(0, SLOTS - 1);
+        Object[] fields = (Object[]) info;
+        String myId = null;
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            if ("MyId".equals(fields[i])) myId = String.valueOf(fields[i + 1]);
+        }
+        for (Object field : fields) {
+            if (!(field instanceof Object[])) continue;
+            for (Object shard : (Object[]) field) {
+                ClusterSlots slots = shard instanceof Object[] ? ofShard((Object[]) shard, myId) : null;
+                if (slots != null) return slots;
+            }
+        }
+        throw new IllegalStateException("RG.INFOCLUSTER does not list shard " + myId);
+    }
+
+    private static ClusterSlots ofShard(Object[] shard, String id) {
+        String shardId = null;
+        long min = -1, max = -1;
+        for (int i = 0; i + 1 < shard.length; i += 2) {
+            if ("id".equals(shard[i])) shardId = String.valueOf(shard[i + 1]);
+            else if ("minHslot".equals(shard[i])) min = ((Number) shard[i + 1]).longValue();
+            else if ("maxHslot".equals(shard[i])) max = ((Number) shard[i + 1]).longValue();
+        }
+        return id != null && id.equals(shardId) && min >= 0 ? new ClusterSlots((int) min, (int) max) : null;
+    }
+
+    boolean owns(String key) {
+        int slot = slot(key);
+        return slot >= minSlot && slot <= maxSlot;
+    }
+
+    /**
+     * The hash slot of the key: the CRC16 of its hash tag, or of the whole key without one, modulo 16384.
+     */
+    static int slot(String key) {
+        int start = key.indexOf('{');
+        if (start >= 0) {
+            int end = key.indexOf('}', start + 1);
+            if (end > start + 1) key = key.substring(start + 1, end);
+        }
+        int crc = 0;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            crc = ((crc << 8) ^ CRC16[((crc >>> 8) ^ b) & 0xFF]) & 0xFFFF;
+        }
+        return crc % SLOTS;
+    }
+
+    @Override
+    public String toString() {
+        return minSlot + "-" + maxSlot;
+    }
+}
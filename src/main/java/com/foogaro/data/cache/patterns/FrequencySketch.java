@@ -0,0 +1,98 @@
+package com.foogaro.data.cache.patterns;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Estimates how often keys were seen, in a fixed amount of memory: a count-min sketch of four rows of 4-bit
+ * counters, packed sixteen to a long, 8 to 16 bytes per tracked key. Counters saturate at 15, and are all halved
+ * once the sketch has recorded ten times as many occurrences as keys it tracks, so that estimates follow recent
+ * popularity rather than all-time counts, as in TinyLFU.
+ */
+public class FrequencySketch {
+
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    public static final int MAX_FREQUENCY = 15;
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+    private long resets;
+
+    public FrequencySketch(int maxKeys) {
+        int size = Integer.highestOneBit(Math.max(16, Math.min(maxKeys, 1 << 30)) - 1) << 1;
+        this.table = new long[size];
+        this.mask = size - 1;
+        this.sampleSize = 10 * Math.max(16, maxKeys);
+    }
+
+    /**
+     * Records an occurrence of the key and returns its estimated frequency, this one included.
+     * Only the counters holding the current estimate are incremented (conservative update), which keeps keys
+     * sharing counters with frequent ones from being overestimated.
+     */
+    public synchronized int increment(String key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int[] indexes = new int[4];
+        int frequency = MAX_FREQUENCY;
+        for (int row = 0; row < 4; row++) {
+            indexes[row] = indexOf(hash, row);
+            frequency = Math.min(frequency, (int) ((table[indexes[row]] >>> ((start + row) << 2)) & 0xfL));
+        }
+        if (frequency == MAX_FREQUENCY) return frequency;
+        for (int row = 0; row < 4; row++) {
+            int offset = (start + row) << 2;
+            if (((table[indexes[row]] >>> offset) & 0xfL) == frequency) table[indexes[row]] += 1L << offset;
+        }
+        if (++additions >= sampleSize) reset();
+        return frequency + 1;
+    }
+
+    /**
+     * The estimated frequency of the key, never lower than the number of times it was recorded since the last aging.
+     */
+    public synchronized int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = MAX_FREQUENCY;
+        for (int row = 0; row < 4; row++) {
+            int offset = (start + row) << 2;
+            frequency = Math.min(frequency, (int) ((table[indexOf(hash, row)] >>> offset) & 0xfL));
+        }
+        return frequency;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) table[i] = (table[i] >>> 1) & RESET_MASK;
+        additions >>>= 1;
+        resets++;
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (SEEDS[row] + hash) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & mask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    public synchronized Map<String, String> toMap() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("counters", String.valueOf(table.length * 16L));
+        stats.put("additions", String.valueOf(additions));
+        stats.put("resets", String.valueOf(resets));
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "FrequencySketch" + toMap();
+    }
+}
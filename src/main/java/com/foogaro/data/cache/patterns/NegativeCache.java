@@ -0,0 +1,48 @@
+package com.foogaro.data.cache.patterns;
+
+import gears.GearsBuilder;
+
+/**
+ * "Not found" markers for entities missing from the database.
+ * Markers live in one hash per shard and entity prefix, with the entity id as field and the expiry time as value,
+ * so that every pattern touching the same keys (read-through, write-through, read-replica) sees and clears them.
+ * Callers must hold the Redis GIL.
+ */
+public final class NegativeCache {
+
+    private NegativeCache() {
+    }
+
+    public static boolean contains(String key) {
+        String[] parts = split(key);
+        Object expiry = GearsBuilder.executeArray(new String[]{"HGET", markers(parts[0]), parts[1]});
+        if (expiry == null) return false;
+        if (Long.parseLong(expiry.toString()) > System.currentTimeMillis()) return true;
+        GearsBuilder.executeArray(new String[]{"HDEL", markers(parts[0]), parts[1]});
+        return false;
+    }
+
+    public static void add(String key, long ttlMillis, long maxEntries) {
+        String[] parts = split(key);
+        String markers = markers(parts[0]);
+        if (((Number) GearsBuilder.executeArray(new String[]{"HLEN", markers})).longValue() >= maxEntries) {
+            // Bounded by dropping all the markers at once: they are only an optimization.
+            GearsBuilder.executeArray(new String[]{"UNLINK", markers});
+        }
+        GearsBuilder.executeArray(new String[]{"HSET", markers, parts[1], String.valueOf(System.currentTimeMillis() + ttlMillis)});
+    }
+
+    public static void invalidate(String key) {
+        String[] parts = split(key);
+        GearsBuilder.executeArray(new String[]{"HDEL", markers(parts[0]), parts[1]});
+    }
+
+    private static String markers(String prefix) {
+        return "notfound:{" + GearsBuilder.hashtag() + "}:" + prefix;
+    }
+
+    private static String[] split(String key) {
+        int separator = key.lastIndexOf(':');
+        return new String[]{key.substring(0, separator), key.substring(separator + 1)};
+    }
+}
@@ -0,0 +1,36 @@
+package com.foogaro.data.cache.patterns;
+
+import gears.GearsBuilder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Who is writing to the cache. Writes made by the caching layer itself are executed through their origin with
+ * keyspace notifications suppressed, so that write patterns registered on the same keys never see, and never
+ * persist, a value that has just been read from the database. Only client writes reach the patterns, so the key
+ * is also forgotten by the {@link WriteFingerprints} tracking what the clients last persisted.
+ */
+public enum Origin {
+
+    CLIENT, READ_THROUGH, REFRESH_AHEAD, READ_REPLICA, WARM_UP;
+
+    private final LongAdder writes = new LongAdder();
+
+    public Object execute(String[] command) {
+        if (command.length > 1) WriteFingerprints.forgetEverywhere(command[1]);
+        boolean avoidNotifications = GearsBuilder.setAvoidNotifications(true);
+        try {
+            return GearsBuilder.executeArray(command);
+        } finally {
+            GearsBuilder.setAvoidNotifications(avoidNotifications);
+            writes.increment();
+        }
+    }
+
+    /**
+     * Writes made through this origin on the shard, by every pattern, all without notifications.
+     */
+    public long getWrites() {
+        return writes.sum();
+    }
+}
@@ -1,17 +1,93 @@
 package com.foogaro.data.cache.patterns;
 
+import com.foogaro.data.cache.Cached;
+import com.foogaro.data.cache.codec.EntityCodec;
+import com.foogaro.data.cache.codec.Storage;
+import com.foogaro.data.cache.metrics.PatternMetrics;
+import com.foogaro.data.jpa.HibernateUtils;
+import com.foogaro.data.jpa.PoolMetrics;
 import gears.ExecutionMode;
 import gears.GearsBuilder;
+import gears.GearsFuture;
 import gears.operations.OnRegisteredOperation;
 import gears.operations.OnUnregisteredOperation;
 import gears.readers.BaseReader;
 import gears.readers.KeysReader;
+import gears.records.KeysReaderRecord;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public abstract class Pattern implements OnProcessEvent, OnRegisteredOperation, OnUnregisteredOperation {
 
+    // RedisGears serializes the pattern into every registered operation, so each callback may run on its own
+    // copy of this instance: state shared between the callbacks of a registration is kept per pattern name.
+    private static final Map<String, Object> RUNTIME = new ConcurrentHashMap<>();
+
+    private final Class<?> entityClass;
+    private transient String name;
+    private transient PatternLog log;
+
+    protected Pattern() {
+        this(null);
+    }
+
+    /**
+     * A pattern for the given entity, keyed by the prefix its codec derives from {@link Cached} or its class name.
+     */
+    protected Pattern(Class<?> entityClass) {
+        this.entityClass = entityClass;
+    }
+
+    /**
+     * Identifies the pattern in logs, metrics and runtime state: the class name, followed by the key prefix
+     * for patterns built for an entity.
+     */
+    public String getName() {
+        if (name == null) {
+            name = entityClass != null ? getClass().getSimpleName() + "." + codec().getKeyPrefix() : getClass().getSimpleName();
+        }
+        return name;
+    }
+
+    private String runtimeKey(String name) {
+        return getClass().getName() + "/" + getName() + "." + name;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected <T> T runtime(String name, Supplier<T> factory) {
+        return (T) RUNTIME.computeIfAbsent(runtimeKey(name), k -> factory.get());
+    }
+
+    /**
+     * Returns the runtime state with the given name, without creating it.
+     */
+    @SuppressWarnings("unchecked")
+    protected <T> T peekRuntime(String name) {
+        return (T) RUNTIME.get(runtimeKey(name));
+    }
+
+    @SuppressWarnings("unchecked")
+    protected <T> T removeRuntime(String name) {
+        return (T) RUNTIME.remove(runtimeKey(name));
+    }
+
     public BaseReader<?> getReader() {
+        return getReader(getKeyPattern());
+    }
+
+    public BaseReader<?> getReader(String keyPattern) {
         KeysReader reader = new KeysReader()
-                .setPattern(getKeyPattern())
+                .setPattern(keyPattern)
                 .setNoScan(true)
                 .setReadValues(true);
         if (getEventsType() != null) reader.setEventTypes(getEventsType());
@@ -21,37 +97,347 @@ public abstract class Pattern implements OnProcessEvent, OnRegisteredOperation,
 
     @Override
     public void onRegistered(String registrationId) throws Exception {
-        GearsBuilder.log(this.getClass().getSimpleName() + ".onRegistered - registrationId: " + registrationId);
+        log().notice("onRegistered - registrationId: {}", registrationId);
+        if (usesDatabase()) {
+            HibernateUtils.map(getEntityClass());
+            runtime("database", () -> Boolean.TRUE);
+            try {
+                HibernateUtils.open();
+            } catch (RuntimeException e) {
+                log().warning("onRegistered - database not available yet, retrying on first use: {}", e.getMessage());
+            }
+        }
+        ScheduledExecutorService publisher = runtime("metricsPublisher", () -> Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, getName() + "-metrics");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        publisher.scheduleWithFixedDelay(this::publishMetrics, getMetricsIntervalMillis(), getMetricsIntervalMillis(), TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void onUnregistered() throws Exception {
-        GearsBuilder.log(this.getClass().getSimpleName() + ".onUnregistered");
+        log().notice("onUnregistered");
+        ScheduledExecutorService publisher = removeRuntime("metricsPublisher");
+        if (publisher != null) publisher.shutdownNow();
+        removeRuntime("metrics");
+        AsyncExecutor async = removeRuntime("async");
+        if (async != null) {
+            async.close();
+            log().notice("onUnregistered - {}", async);
+        }
+        CircuitBreaker breaker = removeRuntime("breaker");
+        if (breaker != null) {
+            breaker.close();
+            log().notice("onUnregistered - {}", breaker);
+        }
+        if (removeRuntime("database") != null) {
+            log().notice("onUnregistered - {}", HibernateUtils.getPoolMetrics());
+            HibernateUtils.close();
+        }
+    }
+
+    /**
+     * Whether events are processed on a bounded worker pool instead of inline on the Redis main thread, so that a
+     * slow database call suspends only the client that triggered it. Redis is then accessed holding the GIL.
+     */
+    public boolean isAsync() {
+        return false;
+    }
+
+    public int getAsyncThreads() {
+        return 8;
+    }
+
+    public int getAsyncQueueSize() {
+        return 1000;
+    }
+
+    /**
+     * Time, in milliseconds, a suspended client waits for its event to be processed before getting the fallback.
+     */
+    public long getAsyncTimeoutMillis() {
+        return 2000;
+    }
+
+    /**
+     * Processes the event on the worker pool, completing the returned future when done or when the timeout expires.
+     */
+    public GearsFuture<Serializable> onProcessEventAsync(KeysReaderRecord record) throws Exception {
+        return submit(record, () -> onProcessEvent(record));
+    }
+
+    protected GearsFuture<Serializable> submit(KeysReaderRecord record, AsyncExecutor.Work work) throws Exception {
+        long start = System.nanoTime();
+        return asyncExecutor().submit(record, () -> {
+            try {
+                work.run();
+            } finally {
+                metrics().event(System.nanoTime() - start);
+            }
+        }, getAsyncTimeoutMillis(), () -> onFallback(record));
+    }
+
+    /**
+     * Called, holding the GIL, when an async event timed out or was rejected: the client gets the reply of its
+     * command as Redis computed it, unless overridden here.
+     */
+    protected void onFallback(KeysReaderRecord record) {
+        log().warning("onFallback - no result in time for {}", record.getKey());
+    }
+
+    protected AsyncExecutor asyncExecutor() {
+        return runtime("async", () -> new AsyncExecutor(getName(), getAsyncThreads(), getAsyncQueueSize()));
+    }
+
+    /**
+     * Runs Redis calls holding the GIL when processing asynchronously; inline they already run on the main thread.
+     */
+    protected <T> T withGil(Callable<T> call) throws Exception {
+        if (!isAsync()) return redis(call);
+        GearsBuilder.acquireRedisGil();
+        try {
+            return redis(call);
+        } finally {
+            GearsBuilder.releaseRedisGil();
+        }
+    }
+
+    /**
+     * Runs Redis calls, timing them in the pattern metrics.
+     */
+    protected <T> T redis(Callable<T> call) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return call.call();
+        } finally {
+            metrics().redis(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Runs a database call through the circuit breaker, timing it in the pattern metrics.
+     */
+    protected <T> T database(Supplier<T> call) {
+        long start = System.nanoTime();
+        try {
+            return breaker().call(call);
+        } finally {
+            metrics().database(System.nanoTime() - start);
+        }
+    }
+
+    protected void database(Runnable call) {
+        database(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    public PatternMetrics metrics() {
+        return runtime("metrics", PatternMetrics::new);
+    }
+
+    /**
+     * Interval, in milliseconds, at which the metrics are written to the Redis hash
+     * {@code metrics:pattern:{<hashtag>}:<pattern>}.
+     */
+    public long getMetricsIntervalMillis() {
+        return 10_000;
+    }
+
+    /**
+     * State of the pattern's components, published along with its metrics.
+     */
+    protected Map<String, String> stats() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        AsyncExecutor async = peekRuntime("async");
+        if (async != null) put(stats, "async", async.toMap());
+        CircuitBreaker breaker = peekRuntime("breaker");
+        if (breaker != null) put(stats, "breaker", breaker.toMap());
+        PoolMetrics pool = peekRuntime("database") != null ? HibernateUtils.getPoolMetrics() : null;
+        if (pool != null) put(stats, "pool", pool.toMap());
+        for (Origin origin : Origin.values()) {
+            stats.put("origin." + origin.name().toLowerCase() + ".writes", String.valueOf(origin.getWrites()));
+        }
+        return stats;
+    }
+
+    protected static void put(Map<String, String> stats, String prefix, Map<String, String> values) {
+        values.forEach((name, value) -> stats.put(prefix + "." + name, value));
+    }
+
+    private void publishMetrics() {
+        try {
+            Map<String, String> stats = metrics().toMap();
+            stats.putAll(stats());
+            GearsBuilder.acquireRedisGil();
+            try {
+                List<String> command = new ArrayList<>();
+                command.add("HSET");
+                command.add("metrics:pattern:{" + GearsBuilder.hashtag() + "}:" + getName());
+                stats.forEach((field, value) -> {
+                    command.add(field);
+                    command.add(value);
+                });
+                GearsBuilder.executeArray(command.toArray(new String[0]));
+            } finally {
+                GearsBuilder.releaseRedisGil();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Rolling window, in milliseconds, over which the circuit breaker computes the rates of failed and slow calls.
+     */
+    public long getBreakerWindowMillis() {
+        return 10_000;
+    }
+
+    /**
+     * Calls needed in the window before the breaker may open.
+     */
+    public int getBreakerMinimumCalls() {
+        return 20;
+    }
+
+    public double getBreakerFailureRate() {
+        return 0.5;
+    }
+
+    /**
+     * Duration, in milliseconds, beyond which a database call counts as slow.
+     */
+    public long getBreakerSlowCallMillis() {
+        return 1000;
+    }
+
+    public double getBreakerSlowCallRate() {
+        return 0.8;
+    }
+
+    /**
+     * Time, in milliseconds, the breaker stays open before letting probe calls through.
+     */
+    public long getBreakerOpenMillis() {
+        return 5000;
+    }
+
+    public int getBreakerHalfOpenProbes() {
+        return 3;
+    }
+
+    /**
+     * The circuit breaker guarding the database calls of this pattern. Its state is kept in the Redis hash
+     * {@code breaker:{<hashtag>}:<pattern>}.
+     */
+    protected CircuitBreaker breaker() {
+        return runtime("breaker", () -> new CircuitBreaker(getName(), getBreakerWindowMillis(),
+                getBreakerMinimumCalls(), getBreakerFailureRate(), getBreakerSlowCallMillis(), getBreakerSlowCallRate(),
+                getBreakerOpenMillis(), getBreakerHalfOpenProbes(), this::publishBreaker));
+    }
+
+    private void publishBreaker(Map<String, String> state) {
+        GearsBuilder.acquireRedisGil();
+        try {
+            List<String> command = new ArrayList<>();
+            command.add("HSET");
+            command.add("breaker:{" + GearsBuilder.hashtag() + "}:" + getName());
+            state.forEach((field, value) -> {
+                command.add(field);
+                command.add(value);
+            });
+            GearsBuilder.executeArray(command.toArray(new String[0]));
+        } finally {
+            GearsBuilder.releaseRedisGil();
+        }
+        if (!CircuitBreaker.State.CLOSED.name().equals(state.get("state"))) {
+            log().warning("breaker - database {}", state);
+        }
+    }
+
+    /**
+     * Lowest level logged by this pattern; per-event messages are VERBOSE.
+     */
+    public PatternLog.Level getLogLevel() {
+        return PatternLog.Level.NOTICE;
+    }
+
+    /**
+     * Logs one DEBUG or VERBOSE message every this many.
+     */
+    public int getLogSampleRate() {
+        return 1;
+    }
+
+    protected PatternLog log() {
+        if (log == null) log = PatternLog.of(getName(), getLogLevel(), getLogSampleRate());
+        return log;
+    }
+
+    /**
+     * Whether this pattern talks to the database, and therefore holds the shared connection pool while registered.
+     */
+    protected boolean usesDatabase() {
+        return true;
     }
 
     public abstract ExecutionMode getExecutionMode();
     public abstract String[] getEventsType();
-    public abstract String getKeyPattern();
+
+    public String getKeyPattern() {
+        return codec().getKeyPrefix() + ":*";
+    }
+
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * Time to live, in seconds, of the keys the caching layer writes for the entity; 0 keeps them forever.
+     */
+    public long getTtlSeconds() {
+        Cached cached = getEntityClass().getAnnotation(Cached.class);
+        return cached != null ? cached.ttlSeconds() : 0;
+    }
+
+    /**
+     * The TTL given to every key written by the caching layer: {@link #getTtlSeconds()}, jittered as declared
+     * with {@link Cached}.
+     */
+    public TtlPolicy getTtlPolicy() {
+        Cached cached = getEntityClass().getAnnotation(Cached.class);
+        return TtlPolicy.jittered(getTtlSeconds(), cached != null ? cached.ttlJitter() : 0);
+    }
     public String[] getCommands() { return null; };
 
-    public String[] generateHSET(Object obj, String id) throws IllegalAccessException {
-        String hashName = obj.getClass().getSimpleName().toLowerCase();
-        var fields = obj.getClass().getDeclaredFields();
-        int redisCommandIndex = 0;
-        String[] redisCommand = new String[(fields.length*2) + 2];
-        redisCommand[redisCommandIndex++] = "HSET";
-        redisCommand[redisCommandIndex++] = hashName+":"+id;
+    /**
+     * Whether the entity is stored as a compact string rather than as a hash.
+     */
+    protected boolean isCompact() {
+        return codec().getStorage() == Storage.COMPACT;
+    }
 
-        for (int i = 0; i < fields.length; i++) {
-            var field = fields[i];
-            field.setAccessible(true);
-            String fieldName = field.getName();
-            Object fieldValue = field.get(obj);
-            redisCommand[redisCommandIndex++] = fieldName;
-            redisCommand[redisCommandIndex++] = (fieldValue != null ? fieldValue.toString() : "") ;
-        }
+    /**
+     * The entity fields held by the key of the event, as a hash whatever the storage; null if the value cannot be
+     * decoded, as a compact value of a different field layout.
+     */
+    protected Map<String, String> valuesOf(KeysReaderRecord record) {
+        if (record.getType() == KeysReaderRecord.REDISMODULE_KEYTYPE_STRING) return codec().fields(record.getStringVal());
+        return record.getHashVal();
+    }
+
+    @SuppressWarnings("unchecked")
+    protected EntityCodec<Object> codec() {
+        return (EntityCodec<Object>) EntityCodec.of(getEntityClass());
+    }
 
-        return redisCommand;
+    @SuppressWarnings("unchecked")
+    public String[] generateHSET(Object obj, String id) {
+        EntityCodec<Object> codec = (EntityCodec<Object>) EntityCodec.of(obj.getClass());
+        return codec.encode(codec.keyOf(id), obj);
     }
 
 }
@@ -0,0 +1,177 @@
+package com.foogaro.data.cache.patterns;
+
+import gears.GearsBuilder;
+import gears.LogLevel;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Level-gated logging to the Redis log, one instance per pattern.
+ * Messages are only built when their level is enabled: {@code {}} placeholders are replaced by the arguments,
+ * or a supplier is called, so a disabled statement with plain arguments allocates nothing.
+ * DEBUG and VERBOSE statements can be sampled, logging one every N calls.
+ * <p>
+ * Level and sampling rate default to the pattern's settings and can be changed at runtime with
+ * {@code RG.CONFIGSET <pattern>.logLevel VERBOSE} and {@code RG.CONFIGSET <pattern>.logSampleRate 100}.
+ */
+public final class PatternLog {
+
+    public enum Level {
+        DEBUG(LogLevel.DEBUG), VERBOSE(LogLevel.VERBOSE), NOTICE(LogLevel.NOTICE), WARNING(LogLevel.WARNING), OFF(null);
+
+        private final LogLevel gearsLevel;
+
+        Level(LogLevel gearsLevel) {
+            this.gearsLevel = gearsLevel;
+        }
+    }
+
+    private static final Map<String, PatternLog> LOGS = new ConcurrentHashMap<>();
+    private static final long CONFIG_POLL_MILLIS = 1000;
+    private static volatile ScheduledExecutorService configPoller;
+
+    private final String name;
+    private final Level defaultLevel;
+    private final int defaultSampleRate;
+    private volatile Level level;
+    private volatile int sampleRate;
+    private final AtomicLong sampled = new AtomicLong();
+
+    private PatternLog(String name, Level level, int sampleRate) {
+        this.name = name;
+        this.defaultLevel = level;
+        this.defaultSampleRate = sampleRate;
+        this.level = level;
+        this.sampleRate = sampleRate;
+    }
+
+    public static PatternLog of(String name) {
+        return of(name, Level.NOTICE, 1);
+    }
+
+    /**
+     * Returns the log of the given name, created with the given defaults if it does not exist yet.
+     */
+    public static PatternLog of(String name, Level level, int sampleRate) {
+        PatternLog log = LOGS.get(name);
+        if (log != null) return log;
+        log = LOGS.computeIfAbsent(name, n -> new PatternLog(n, level, Math.max(1, sampleRate)));
+        startConfigPoller();
+        return log;
+    }
+
+    private static synchronized void startConfigPoller() {
+        if (configPoller != null) return;
+        configPoller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pattern-log-config");
+            thread.setDaemon(true);
+            return thread;
+        });
+        configPoller.scheduleWithFixedDelay(PatternLog::pollConfig, CONFIG_POLL_MILLIS, CONFIG_POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void pollConfig() {
+        try {
+            GearsBuilder.acquireRedisGil();
+            try {
+                for (PatternLog log : LOGS.values()) log.reconfigure();
+            } finally {
+                GearsBuilder.releaseRedisGil();
+            }
+        } catch (LinkageError e) {
+            // not running inside RedisGears
+            configPoller.shutdown();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void reconfigure() {
+        String configuredLevel = config(name + ".logLevel");
+        String configuredRate = config(name + ".logSampleRate");
+        try {
+            level = configuredLevel != null ? Level.valueOf(configuredLevel.trim().toUpperCase()) : defaultLevel;
+        } catch (IllegalArgumentException e) {
+            level = defaultLevel;
+        }
+        try {
+            sampleRate = configuredRate != null ? Math.max(1, Integer.parseInt(configuredRate.trim())) : defaultSampleRate;
+        } catch (NumberFormatException e) {
+            sampleRate = defaultSampleRate;
+        }
+    }
+
+    private static String config(String key) {
+        try {
+            String value = GearsBuilder.configGet(key);
+            return value == null || value.isEmpty() ? null : value;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(this.level) >= 0 && level != Level.OFF;
+    }
+
+    /**
+     * Whether a statement of the given level is to be logged, counting it towards the sampling rate.
+     */
+    private boolean shouldLog(Level level) {
+        if (!isEnabled(level)) return false;
+        int rate = sampleRate;
+        return rate <= 1 || level.compareTo(Level.NOTICE) >= 0 || sampled.getAndIncrement() % rate == 0;
+    }
+
+    public void debug(String message) { log(Level.DEBUG, message); }
+    public void debug(String format, Object arg) { log(Level.DEBUG, format, arg, null, null); }
+    public void debug(String format, Object arg1, Object arg2) { log(Level.DEBUG, format, arg1, arg2, null); }
+    public void debug(Supplier<String> message) { log(Level.DEBUG, message); }
+
+    public void verbose(String message) { log(Level.VERBOSE, message); }
+    public void verbose(String format, Object arg) { log(Level.VERBOSE, format, arg, null, null); }
+    public void verbose(String format, Object arg1, Object arg2) { log(Level.VERBOSE, format, arg1, arg2, null); }
+    public void verbose(String format, Object arg1, Object arg2, Object arg3) { log(Level.VERBOSE, format, arg1, arg2, arg3); }
+    public void verbose(Supplier<String> message) { log(Level.VERBOSE, message); }
+
+    public void notice(String message) { log(Level.NOTICE, message); }
+    public void notice(String format, Object arg) { log(Level.NOTICE, format, arg, null, null); }
+    public void notice(String format, Object arg1, Object arg2) { log(Level.NOTICE, format, arg1, arg2, null); }
+
+    public void warning(String message) { log(Level.WARNING, message); }
+    public void warning(String format, Object arg) { log(Level.WARNING, format, arg, null, null); }
+    public void warning(String format, Object arg1, Object arg2) { log(Level.WARNING, format, arg1, arg2, null); }
+    public void warning(String format, Object arg1, Object arg2, Object arg3) { log(Level.WARNING, format, arg1, arg2, arg3); }
+    public void warning(Supplier<String> message) { log(Level.WARNING, message); }
+
+    private void log(Level level, String message) {
+        if (shouldLog(level)) write(level, message);
+    }
+
+    private void log(Level level, Supplier<String> message) {
+        if (shouldLog(level)) write(level, message.get());
+    }
+
+    private void log(Level level, String format, Object arg1, Object arg2, Object arg3) {
+        if (!shouldLog(level)) return;
+        StringBuilder message = new StringBuilder(format.length() + 64);
+        Object[] args = {arg1, arg2, arg3};
+        int next = 0, from = 0, at;
+        while (next < args.length && (at = format.indexOf("{}", from)) >= 0) {
+            message.append(format, from, at).append(args[next++]);
+            from = at + 2;
+        }
+        message.append(format, from, format.length());
+        write(level, message.toString());
+    }
+
+    private void write(Level level, String message) {
+        GearsBuilder.log(name + "." + message, level.gearsLevel);
+    }
+}
@@ -1,11 +1,21 @@
 package com.foogaro.data.cache.patterns;
 
+import com.foogaro.data.cache.cdc.CdcEvent;
+import com.foogaro.data.cache.cdc.DebeziumDecoder;
 import gears.ExecutionMode;
+import gears.GearsBuilder;
+import gears.records.KeysReaderRecord;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.foogaro.data.cache.EventType.CDC;
 
 public abstract class ReadReplica extends Pattern {
 
+    public static final String POSITION_FIELD = "__cdc";
+
     @Override
     public ExecutionMode getExecutionMode() {
         return ExecutionMode.ASYNC_LOCAL;
@@ -16,4 +26,153 @@ public abstract class ReadReplica extends Pattern {
         return new String[]{CDC.getEventType()};
     }
 
+    @Override
+    protected boolean usesDatabase() {
+        return false;
+    }
+
+    /**
+     * Maximum number of CDC entries read and applied at once.
+     */
+    public int getBatchSize() {
+        return 500;
+    }
+
+    /**
+     * Number of workers decoding and applying a batch; changes to the same entity always go to the same worker.
+     */
+    public int getParallelism() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    /**
+     * Number of times a batch with changes that failed to apply is read again before they are dead-lettered.
+     */
+    public int getApplyAttempts() {
+        return 5;
+    }
+
+    /**
+     * Delay before the first retry of a batch with changes that failed to apply, growing with every attempt.
+     */
+    public long getApplyRetryBackoffMillis() {
+        return 1000;
+    }
+
+    /**
+     * How long the position of a deleted entity is remembered, so that older changes arriving late do not bring it back.
+     */
+    public long getTombstoneTtlSeconds() {
+        return 86400;
+    }
+
+    protected CdcEvent decode(String[] fields) throws Exception {
+        return DebeziumDecoder.decode(codec(), fields[0], fields.length > 1 ? fields[1] : null);
+    }
+
+    /**
+     * Applies a decoded CDC event to Redis, holding the GIL.
+     * The binlog position of the last applied change is kept in the hash, or in the metadata of a compact value,
+     * so that duplicate or out-of-order events are skipped instead of overwriting newer data.
+     */
+    protected boolean apply(CdcEvent event) {
+        long start = System.nanoTime();
+        try {
+            return applyChange(event);
+        } finally {
+            metrics().redis(System.nanoTime() - start);
+        }
+    }
+
+    private boolean applyChange(CdcEvent event) {
+        String key = codec().keyOf(event.getId());
+        String position = event.getPosition();
+        String tombstone = null;
+        if (position != null) {
+            String current = currentPosition(key);
+            if (current == null) current = tombstone = tombstonePosition(key);
+            if (current != null && current.compareTo(position) >= 0) return false;
+        }
+        if (event.isDelete()) {
+            Origin.READ_REPLICA.execute(new String[]{"DEL", key});
+            if (position != null) {
+                Origin.READ_REPLICA.execute(new String[]{"SET", tombstoneOf(key), position, "EX", String.valueOf(getTombstoneTtlSeconds())});
+            }
+            return true;
+        }
+        if (tombstone != null) Origin.READ_REPLICA.execute(new String[]{"DEL", tombstoneOf(key)});
+        if (isCompact()) {
+            Origin.READ_REPLICA.execute(new String[]{"SET", key, codec().compact(event.getEntity(), position)});
+            NegativeCache.invalidate(key);
+        } else {
+            String[] command = codec().encode(key, event.getEntity());
+            if (position != null) {
+                command = Arrays.copyOf(command, command.length + 2);
+                command[command.length - 2] = POSITION_FIELD;
+                command[command.length - 1] = position;
+            }
+            Origin.READ_REPLICA.execute(command);
+            NegativeCache.invalidate(key);
+        }
+        return true;
+    }
+
+    private String currentPosition(String key) {
+        if (isCompact()) {
+            Object value = GearsBuilder.executeArray(new String[]{"GET", key});
+            return value != null ? codec().metadataOf(value.toString()) : null;
+        }
+        Object current = GearsBuilder.executeArray(new String[]{"HGET", key, POSITION_FIELD});
+        return current != null ? current.toString() : null;
+    }
+
+    private String tombstonePosition(String key) {
+        Object tombstone = GearsBuilder.executeArray(new String[]{"GET", tombstoneOf(key)});
+        return tombstone != null ? tombstone.toString() : null;
+    }
+
+    /**
+     * Key holding the position of a deleted entity, in the same slot as the entity key.
+     */
+    protected String tombstoneOf(String key) {
+        return key.indexOf('{') >= 0 ? "tombstone:" + key : "tombstone:{" + key + "}";
+    }
+
+    @Override
+    public void onProcessEvent(KeysReaderRecord record) {
+        try {
+            log().verbose("onProcessEvent.Record: [{}]", record);
+            consumer(record.getKey()).drain();
+        } catch (Throwable t) {
+            metrics().error();
+            t.printStackTrace();
+        }
+    }
+
+    protected ReplicaConsumer consumer(String stream) {
+        Map<String, ReplicaConsumer> consumers = runtime("consumers", ConcurrentHashMap::new);
+        return consumers.computeIfAbsent(stream, s -> new ReplicaConsumer(getName(), s, getBatchSize(),
+                getParallelism(), getApplyAttempts(), getApplyRetryBackoffMillis(), this::decode, this::apply));
+    }
+
+    @Override
+    protected Map<String, String> stats() {
+        Map<String, String> stats = super.stats();
+        Map<String, ReplicaConsumer> consumers = peekRuntime("consumers");
+        if (consumers != null) consumers.forEach((stream, consumer) -> put(stats, "consumer." + stream, consumer.toMap()));
+        return stats;
+    }
+
+    @Override
+    public void onUnregistered() throws Exception {
+        Map<String, ReplicaConsumer> consumers = removeRuntime("consumers");
+        if (consumers != null) {
+            for (Map.Entry<String, ReplicaConsumer> entry : consumers.entrySet()) {
+                entry.getValue().close();
+                log().notice("onUnregistered - {} {}", entry.getKey(), entry.getValue());
+            }
+        }
+        super.onUnregistered();
+    }
+
 }
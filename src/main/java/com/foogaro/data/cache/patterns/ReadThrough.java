@@ -1,10 +1,31 @@
 package com.foogaro.data.cache.patterns;
 
+import com.foogaro.data.jpa.HibernateUtils;
 import gears.ExecutionMode;
+import gears.GearsBuilder;
+import gears.GearsFuture;
+import gears.records.KeysReaderRecord;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.foogaro.data.cache.EventType.*;
 
-public abstract class ReadThrough extends Pattern {
+public class ReadThrough extends Pattern {
+
+    protected ReadThrough() {
+    }
+
+    public ReadThrough(Class<?> entityClass) {
+        super(entityClass);
+    }
 
     @Override
     public ExecutionMode getExecutionMode() {
@@ -13,8 +34,392 @@ public abstract class ReadThrough extends Pattern {
 
     @Override
     public String[] getEventsType() {
+        if (isCompact()) return new String[]{KEY_MISS.getEventType()};
         return new String[]{KEY_MISS.getEventType(), HGET.getEventType(), HMGET.getEventType()};
     }
 
+    /**
+     * Hash reads of existing keys, which reply again once the entity is loaded. Compact entities are read with GET
+     * or through the {@code ENTITY} trigger, and only need the key misses.
+     */
+    @Override
+    public String[] getCommands() {
+        return isCompact() ? null : new String[]{"HGET", "HMGET"};
+    }
+
+    protected Object toId(String key) {
+        return codec().idOf(key);
+    }
+
+    /**
+     * Maximum time, in milliseconds, a miss waits for a load of the same key already in progress.
+     */
+    public long getLoadTimeoutMillis() {
+        return 1000;
+    }
+
+    /**
+     * How long, in milliseconds, a key not found in the database is answered as missing without querying it again.
+     * Zero disables negative caching.
+     */
+    public long getNegativeCacheTtlMillis() {
+        return 10_000;
+    }
+
+    public long getNegativeCacheMaxEntries() {
+        return 100_000;
+    }
+
+    /**
+     * Maximum number of keys loaded with a single query.
+     */
+    public int getBatchSize() {
+        return 100;
+    }
+
+    /**
+     * Time, in milliseconds, a miss waits for other misses to load them together. Zero only groups the misses
+     * arriving while a load is already in progress, without adding latency.
+     */
+    public long getBatchWindowMillis() {
+        return 0;
+    }
+
+    /**
+     * Misses of a key needed, within the recent history kept by the admission sketch, before its entity is written
+     * to Redis. 1 caches every entity loaded; higher values keep one-off reads, such as scans of cold ids, from
+     * pushing the hot set out of memory. Until admitted, the commands {@link #project} answers are answered from
+     * the loaded entity, while other commands see the key as missing.
+     */
+    public int getAdmissionThreshold() {
+        return 1;
+    }
+
+    /**
+     * Number of distinct keys whose frequency the admission sketch estimates accurately, at 8 to 16 bytes each.
+     * Missing many more distinct keys than this between two agings of the sketch admits a growing share of them.
+     */
+    public int getAdmissionSketchSize() {
+        return 100_000;
+    }
+
+    /**
+     * Which entities are loaded into the cache in the background when the pattern is registered; none by default.
+     */
+    public WarmUpPolicy getWarmUpPolicy() {
+        return WarmUpPolicy.NONE;
+    }
+
+    /**
+     * Number of primary-key ranges loaded in parallel by the warm-up.
+     */
+    public int getWarmUpThreads() {
+        return 4;
+    }
+
+    /**
+     * Rows loaded by each warm-up query, one page of a range.
+     */
+    public int getWarmUpFetchSize() {
+        return 1000;
+    }
+
+    /**
+     * Entities written to the cache per GIL acquisition by the warm-up.
+     */
+    public int getWarmUpBatchSize() {
+        return 500;
+    }
+
+    @Override
+    public void onRegistered(String registrationId) throws Exception {
+        super.onRegistered(registrationId);
+        if (getWarmUpPolicy().getKind() != WarmUpPolicy.Kind.NONE) {
+            WarmUp previous = removeRuntime("warmUp");
+            if (previous != null) previous.close();
+            runtime("warmUp", () -> new WarmUp(getName(), codec(), getWarmUpPolicy(),
+                    getWarmUpThreads(), getWarmUpFetchSize(), getWarmUpBatchSize(), getTtlPolicy(), this::database)).start();
+        }
+    }
+
+    @Override
+    public void onProcessEvent(KeysReaderRecord record) {
+        if (!isHit(record)) process(record, GearsBuilder.getCommand());
+    }
+
+    @Override
+    public GearsFuture<Serializable> onProcessEventAsync(KeysReaderRecord record) throws Exception {
+        if (isHit(record)) {
+            GearsFuture<Serializable> hit = new GearsFuture<>();
+            hit.setResult(record);
+            return hit;
+        }
+        // the command is only available on the main thread, while the hook runs
+        byte[][] command = GearsBuilder.getCommand();
+        return submit(record, () -> process(record, command));
+    }
+
+    /**
+     * Whether a hooked read found the entity cached, counted as a hit: Redis then runs the command itself.
+     * Hooked HGET/HMGET run before the command, so a missing hash fires no keymiss. Called holding the GIL.
+     */
+    private boolean isHit(KeysReaderRecord record) {
+        if (KEY_MISS.getEventType().equals(record.getEvent())) return false;
+        if (((Number) GearsBuilder.executeArray(new String[]{"EXISTS", record.getKey()})).longValue() == 0) return false;
+        metrics().hit();
+        return true;
+    }
+
+    private void process(KeysReaderRecord record, byte[][] command) {
+        try {
+            log().verbose("Record: [{}]", record);
+            metrics().miss();
+            recordMiss(record.getKey());
+            boolean keyMiss = KEY_MISS.getEventType().equals(record.getEvent());
+            Object entity = load(record.getKey());
+            if (entity != null) {
+                withGil(() -> {
+                    if (!AsyncExecutor.claimReply()) return null;
+                    Object projection = project(entity, command);
+                    if (projection != null) GearsBuilder.overrideReply(projection);
+                    // a hooked command runs once the event is processed, finding the entity cached
+                    else if (keyMiss) reply(command);
+                    return null;
+                });
+            }
+        } catch (CircuitBreaker.OpenException e) {
+            log().verbose("onProcessEvent - {}, replying with the cache miss", e.getMessage());
+        } catch (Throwable t) {
+            metrics().error();
+            t.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs again a command that fired a keymiss, now that the entity is cached, and replies with its result: only
+     * for the commands {@link #project} cannot answer from the entity, since Redis replied to it already.
+     */
+    private void reply(byte[][] commandBytes) {
+        String[] command = new String[commandBytes.length];
+        for (int i = 0; i < commandBytes.length; i++) command[i] = new String(commandBytes[i], StandardCharsets.UTF_8);
+        Object response = GearsBuilder.executeArray(command);
+        log().verbose("GearsBuilder.redo.executeArray {}", response);
+        GearsBuilder.overrideReply(response instanceof Object[] ? Arrays.asList((Object[]) response) : response);
+    }
+
+    /**
+     * The reply Redis gives to the command once the entity is cached, computed from the entity itself instead of
+     * running the command again: HGET, HMGET, HGETALL and HEXISTS on a hash, GET on a compact value.
+     * Arguments are matched as the client sent them, without decoding them. Returns null for other commands.
+     */
+    protected Object project(Object entity, byte[][] command) {
+        byte[] name = command[0];
+        if (isCompact()) return is(name, "GET") ? codec().compact(entity, null) : null;
+        if (is(name, "HGET") && command.length == 3) {
+            return field(entity, command[2]);
+        }
+        if (is(name, "HMGET")) {
+            ArrayList<String> values = new ArrayList<>(command.length - 2);
+            for (int i = 2; i < command.length; i++) values.add(field(entity, command[i]));
+            return values;
+        }
+        if (is(name, "HEXISTS") && command.length == 3) {
+            return codec().fieldIndex(command[2]) >= 0 ? 1L : 0L;
+        }
+        if (is(name, "HGETALL")) {
+            String[] names = codec().fieldNames();
+            ArrayList<String> hash = new ArrayList<>(names.length * 2);
+            for (int i = 0; i < names.length; i++) {
+                hash.add(names[i]);
+                hash.add(field(entity, i));
+            }
+            return hash;
+        }
+        return null;
+    }
+
+    /**
+     * Whether the command name matches, ignoring case.
+     */
+    private static boolean is(byte[] name, String command) {
+        if (name.length != command.length()) return false;
+        for (int i = 0; i < name.length; i++) {
+            if (Character.toUpperCase((char) name[i]) != command.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private String field(Object entity, byte[] name) {
+        int index = codec().fieldIndex(name);
+        return index >= 0 ? field(entity, index) : null;
+    }
+
+    /**
+     * A field as stored in the hash: empty for null values.
+     */
+    private String field(Object entity, int index) {
+        String value = codec().encodeField(entity, index);
+        return value != null ? value : "";
+    }
+
+    private void recordMiss(String key) {
+        if (getAdmissionThreshold() > 1) admission().increment(key);
+    }
+
+    /**
+     * Whether the key was missed often enough lately for its entity to be cached.
+     */
+    protected boolean isAdmitted(String key) {
+        return getAdmissionThreshold() <= 1 || admission().frequency(key) >= getAdmissionThreshold();
+    }
+
+    /**
+     * Loads the entity for the key and caches it, sharing the result with any concurrent miss on the same key
+     * instead of querying the database again. Returns null without a query while the key is marked as not found.
+     */
+    protected Object load(String key) throws Exception {
+        boolean negativeCache = getNegativeCacheTtlMillis() > 0;
+        if (negativeCache && withGil(() -> NegativeCache.contains(key))) {
+            negativeHits().increment();
+            return null;
+        }
+        Object value = singleFlight().load(key, () -> batchLoader().load(key, getLoadTimeoutMillis()), getLoadTimeoutMillis());
+        if (value == null && negativeCache) {
+            withGil(() -> {
+                NegativeCache.add(key, getNegativeCacheTtlMillis(), getNegativeCacheMaxEntries());
+                return null;
+            });
+        }
+        return value;
+    }
+
+    /**
+     * Loads the entity for the key and caches it on the calling thread, for callers already holding the GIL,
+     * which must not wait for a load running on a worker. Returns null while the key is marked as not found.
+     */
+    public Object loadNow(String key) throws Exception {
+        metrics().miss();
+        recordMiss(key);
+        boolean negativeCache = getNegativeCacheTtlMillis() > 0;
+        if (negativeCache && NegativeCache.contains(key)) {
+            negativeHits().increment();
+            return null;
+        }
+        Map<String, Object> loaded = query(Collections.singletonList(key));
+        redis(() -> {
+            fill(loaded);
+            if (loaded.isEmpty() && negativeCache) {
+                NegativeCache.add(key, getNegativeCacheTtlMillis(), getNegativeCacheMaxEntries());
+            }
+            return null;
+        });
+        return loaded.get(key);
+    }
+
+    /**
+     * Loads all the keys with one query and writes the entities found to Redis in one go.
+     */
+    protected Map<String, Object> loadAll(List<String> keys) {
+        Map<String, Object> loaded = query(keys);
+        try {
+            withGil(() -> {
+                fill(loaded);
+                return null;
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot cache " + loaded.keySet(), e);
+        }
+        return loaded;
+    }
+
+    private Map<String, Object> query(List<String> keys) {
+        metrics().batch(keys.size());
+        List<Object> ids = new ArrayList<>(keys.size());
+        for (String key : keys) ids.add(toId(key));
+        List<?> entities = database(() -> HibernateUtils.findAll(getEntityClass(), ids));
+        Map<String, Object> loaded = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            Object entity = entities.get(i);
+            if (entity != null) loaded.put(keys.get(i), entity);
+        }
+        return loaded;
+    }
+
+    protected void fill(Map<String, Object> entities) {
+        TtlPolicy ttlPolicy = getTtlPolicy();
+        for (Map.Entry<String, Object> entry : entities.entrySet()) {
+            if (!isAdmitted(entry.getKey())) {
+                notAdmitted().increment();
+                continue;
+            }
+            Object response = Origin.READ_THROUGH.execute(codec().write(entry.getKey(), entry.getValue()));
+            String[] expire = ttlPolicy.expire(entry.getKey());
+            if (expire != null) {
+                Origin.READ_THROUGH.execute(expire);
+                RefreshScheduler.trackExpiring(codec().getKeyPrefix(), entry.getKey());
+            }
+            log().verbose("GearsBuilder.executeArray.fill: {}", response);
+        }
+    }
+
+    protected SingleFlight<Object> singleFlight() {
+        return runtime("singleFlight", SingleFlight::new);
+    }
+
+    protected BatchLoader batchLoader() {
+        return runtime("batchLoader", () -> new BatchLoader(getBatchSize(), getBatchWindowMillis(), this::loadAll));
+    }
+
+    protected LongAdder negativeHits() {
+        return runtime("negativeHits", LongAdder::new);
+    }
+
+    protected FrequencySketch admission() {
+        return runtime("admission", () -> new FrequencySketch(getAdmissionSketchSize()));
+    }
+
+    /**
+     * Entities loaded but not cached, because their keys were not admitted yet.
+     */
+    protected LongAdder notAdmitted() {
+        return runtime("notAdmitted", LongAdder::new);
+    }
+
+    @Override
+    protected Map<String, String> stats() {
+        Map<String, String> stats = super.stats();
+        SingleFlight<Object> singleFlight = peekRuntime("singleFlight");
+        if (singleFlight != null) put(stats, "singleFlight", singleFlight.toMap());
+        BatchLoader batchLoader = peekRuntime("batchLoader");
+        if (batchLoader != null) put(stats, "batchLoader", batchLoader.toMap());
+        LongAdder negativeHits = peekRuntime("negativeHits");
+        if (negativeHits != null) stats.put("negativeHits", String.valueOf(negativeHits.sum()));
+        FrequencySketch admission = peekRuntime("admission");
+        if (admission != null) put(stats, "admission", admission.toMap());
+        LongAdder notAdmitted = peekRuntime("notAdmitted");
+        if (notAdmitted != null) stats.put("admission.notAdmitted", String.valueOf(notAdmitted.sum()));
+        WarmUp warmUp = peekRuntime("warmUp");
+        if (warmUp != null) put(stats, "warmUp", warmUp.toMap());
+        return stats;
+    }
+
+    @Override
+    public void onUnregistered() throws Exception {
+        WarmUp warmUp = removeRuntime("warmUp");
+        if (warmUp != null) {
+            warmUp.close();
+            log().notice("onUnregistered - {}", warmUp);
+        }
+        SingleFlight<Object> singleFlight = removeRuntime("singleFlight");
+        if (singleFlight != null) log().notice("onUnregistered - {}", singleFlight);
+        BatchLoader batchLoader = removeRuntime("batchLoader");
+        if (batchLoader != null) log().notice("onUnregistered - {}", batchLoader);
+        LongAdder negativeHits = removeRuntime("negativeHits");
+        if (negativeHits != null) log().notice("onUnregistered - negative cache hits: {}", negativeHits);
+        FrequencySketch admission = removeRuntime("admission");
+        LongAdder notAdmitted = removeRuntime("notAdmitted");
+        if (admission != null) log().notice("onUnregistered - {}, not admitted: {}", admission, notAdmitted);
+        super.onUnregistered();
+    }
 
 }
@@ -1,19 +1,105 @@
 package com.foogaro.data.cache.patterns;
 
+import com.foogaro.data.jpa.HibernateUtils;
 import gears.ExecutionMode;
+import gears.GearsBuilder;
+import gears.records.KeysReaderRecord;
 
-import static com.foogaro.data.cache.EventType.EXPIRED;
+import java.util.Map;
 
-public abstract class RefreshAhead extends Pattern {
+import static com.foogaro.data.cache.EventType.EXPIRE;
+
+public class RefreshAhead extends Pattern {
+
+    protected RefreshAhead() {
+    }
+
+    public RefreshAhead(Class<?> entityClass) {
+        super(entityClass);
+    }
 
     @Override
     public ExecutionMode getExecutionMode() {
         return ExecutionMode.ASYNC_LOCAL;
     }
 
+    /**
+     * Keys are tracked when a TTL is set on them, so that they can be refreshed before they expire.
+     */
     @Override
     public String[] getEventsType() {
-        return new String[]{EXPIRED.getEventType()};
+        return new String[]{EXPIRE.getEventType()};
+    }
+
+    /**
+     * Fraction of the TTL after which a key that is still being read gets reloaded.
+     */
+    public double getRefreshFraction() {
+        return 0.8;
+    }
+
+    public int getRefreshThreads() {
+        return 2;
+    }
+
+    /**
+     * Maximum number of refreshes waiting for a worker; refreshes beyond it are skipped and the keys left to expire.
+     */
+    public int getRefreshQueueSize() {
+        return 1000;
+    }
+
+    public int getMaxRefreshesPerSecond() {
+        return 200;
+    }
+
+    @Override
+    public void onRegistered(String registrationId) throws Exception {
+        super.onRegistered(registrationId);
+        RefreshScheduler.register(codec().getKeyPrefix(), scheduler());
+    }
+
+    @Override
+    public void onProcessEvent(KeysReaderRecord record) {
+        try {
+            GearsBuilder.acquireRedisGil();
+            log().verbose("Record: [{}]", record);
+            scheduler().track(record.getKey());
+        } catch (Throwable t) {
+            metrics().error();
+            t.printStackTrace();
+        } finally {
+            GearsBuilder.releaseRedisGil();
+        }
+    }
+
+    protected Object load(String key) {
+        return database(() -> HibernateUtils.find(getEntityClass(), codec().idOf(key)));
+    }
+
+    protected RefreshScheduler scheduler() {
+        return runtime("scheduler", () -> new RefreshScheduler(getName(), getRefreshFraction(),
+                getRefreshThreads(), getRefreshQueueSize(), getMaxRefreshesPerSecond(),
+                this::load, codec()::write));
+    }
+
+    @Override
+    protected Map<String, String> stats() {
+        Map<String, String> stats = super.stats();
+        RefreshScheduler scheduler = peekRuntime("scheduler");
+        if (scheduler != null) put(stats, "scheduler", scheduler.toMap());
+        return stats;
+    }
+
+    @Override
+    public void onUnregistered() throws Exception {
+        RefreshScheduler scheduler = removeRuntime("scheduler");
+        if (scheduler != null) {
+            RefreshScheduler.unregister(codec().getKeyPrefix(), scheduler);
+            scheduler.close();
+            log().notice("onUnregistered - {}", scheduler);
+        }
+        super.onUnregistered();
     }
 
 }
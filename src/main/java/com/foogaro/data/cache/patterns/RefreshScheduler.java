@@ -0,0 +1,207 @@
+package com.foogaro.data.cache.patterns;
+
+import gears.GearsBuilder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Reloads keys before they expire, as long as clients keep reading them.
+ * A tracked key is checked once the given fraction of its TTL has elapsed: if Redis reports an access since it
+ * was tracked or last refreshed, the entity is reloaded on a bounded worker pool and the TTL is restored,
+ * otherwise the key is left to expire.
+ */
+public class RefreshScheduler {
+
+    private static final Map<String, RefreshScheduler> BY_KEY_PREFIX = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final double refreshFraction;
+    private final long permitIntervalNanos;
+    private final Function<String, Object> loader;
+    private final BiFunction<String, Object, String[]> encoder;
+    private final ScheduledExecutorService timer;
+    private final ThreadPoolExecutor workers;
+    private final Map<String, Tracked> tracked = new ConcurrentHashMap<>();
+    private long nextPermitNanos;
+
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder skippedIdle = new LongAdder();
+    private final LongAdder skippedGone = new LongAdder();
+    private final LongAdder skippedBusy = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private static final class Tracked {
+        private final long ttlMillis;
+        private final long since;
+
+        private Tracked(long ttlMillis, long since) {
+            this.ttlMillis = ttlMillis;
+            this.since = since;
+        }
+    }
+
+    public RefreshScheduler(String name, double refreshFraction, int threads, int queueSize, int maxRefreshesPerSecond,
+                            Function<String, Object> loader, BiFunction<String, Object, String[]> encoder) {
+        this.name = name;
+        this.refreshFraction = refreshFraction;
+        this.permitIntervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, maxRefreshesPerSecond);
+        this.loader = loader;
+        this.encoder = encoder;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, name + "-refresh-timer"));
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> daemon(r, name + "-refresh"));
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Makes the scheduler track the keys of the entity that the caching layer itself gives a TTL, whose EXPIRE is
+     * written without notifications.
+     */
+    public static void register(String keyPrefix, RefreshScheduler scheduler) {
+        BY_KEY_PREFIX.put(keyPrefix, scheduler);
+    }
+
+    public static void unregister(String keyPrefix, RefreshScheduler scheduler) {
+        BY_KEY_PREFIX.remove(keyPrefix, scheduler);
+    }
+
+    /**
+     * Tracks a key just given a TTL by the caching layer, if the entity is refreshed ahead. Must be called holding
+     * the Redis GIL.
+     */
+    public static void trackExpiring(String keyPrefix, String key) {
+        RefreshScheduler scheduler = BY_KEY_PREFIX.get(keyPrefix);
+        if (scheduler != null) scheduler.track(key);
+    }
+
+    /**
+     * Starts tracking the key with its current TTL. Must be called holding the Redis GIL.
+     */
+    public void track(String key) {
+        long ttl = ((Number) GearsBuilder.executeArray(new String[]{"PTTL", key})).longValue();
+        if (ttl <= 0) return;
+        schedule(key, new Tracked(ttl, System.currentTimeMillis()));
+    }
+
+    private void schedule(String key, Tracked entry) {
+        tracked.put(key, entry);
+        scheduled.increment();
+        timer.schedule(() -> dispatch(key, entry), (long) (entry.ttlMillis * refreshFraction), TimeUnit.MILLISECONDS);
+    }
+
+    private void dispatch(String key, Tracked entry) {
+        if (tracked.get(key) != entry) return;
+        long delay = reservePermit();
+        if (delay > 0) {
+            timer.schedule(() -> dispatch(key, entry), delay, TimeUnit.NANOSECONDS);
+            return;
+        }
+        try {
+            workers.execute(() -> refresh(key, entry));
+        } catch (RejectedExecutionException e) {
+            skippedBusy.increment();
+            tracked.remove(key, entry);
+        }
+    }
+
+    private synchronized long reservePermit() {
+        long now = System.nanoTime();
+        if (nextPermitNanos <= now) {
+            nextPermitNanos = now + permitIntervalNanos;
+            return 0;
+        }
+        return nextPermitNanos - now;
+    }
+
+    private void refresh(String key, Tracked entry) {
+        try {
+            if (!recentlyAccessed(key, entry)) {
+                tracked.remove(key, entry);
+                return;
+            }
+            Object entity = loader.apply(key);
+            if (entity == null) {
+                skippedGone.increment();
+                tracked.remove(key, entry);
+                return;
+            }
+            GearsBuilder.acquireRedisGil();
+            try {
+                Origin.REFRESH_AHEAD.execute(encoder.apply(key, entity));
+                Origin.REFRESH_AHEAD.execute(new String[]{"PEXPIRE", key, String.valueOf(entry.ttlMillis)});
+            } finally {
+                GearsBuilder.releaseRedisGil();
+            }
+            completed.increment();
+            schedule(key, new Tracked(entry.ttlMillis, System.currentTimeMillis()));
+        } catch (Throwable t) {
+            failed.increment();
+            tracked.remove(key, entry);
+            PatternLog.of(name).warning("refresh - {} failed: {}", key, t.getMessage());
+        }
+    }
+
+    private boolean recentlyAccessed(String key, Tracked entry) {
+        GearsBuilder.acquireRedisGil();
+        try {
+            if (((Number) GearsBuilder.executeArray(new String[]{"PTTL", key})).longValue() <= 0) {
+                skippedGone.increment();
+                return false;
+            }
+            long idleMillis;
+            try {
+                idleMillis = ((Number) GearsBuilder.executeArray(new String[]{"OBJECT", "IDLETIME", key})).longValue() * 1000;
+            } catch (RuntimeException e) {
+                // IDLETIME is not available with an LFU maxmemory-policy: refresh as long as the key exists.
+                return true;
+            }
+            // IDLETIME has a one second resolution, so an access is only trusted when clearly after tracking started.
+            if (idleMillis + 1000 < System.currentTimeMillis() - entry.since) return true;
+            skippedIdle.increment();
+            return false;
+        } finally {
+            GearsBuilder.releaseRedisGil();
+        }
+    }
+
+    public void close() throws InterruptedException {
+        timer.shutdownNow();
+        workers.shutdown();
+        workers.awaitTermination(10, TimeUnit.SECONDS);
+        tracked.clear();
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("tracked", String.valueOf(tracked.size()));
+        stats.put("scheduled", String.valueOf(scheduled.sum()));
+        stats.put("completed", String.valueOf(completed.sum()));
+        stats.put("skippedIdle", String.valueOf(skippedIdle.sum()));
+        stats.put("skippedGone", String.valueOf(skippedGone.sum()));
+        stats.put("skippedBusy", String.valueOf(skippedBusy.sum()));
+        stats.put("failed", String.valueOf(failed.sum()));
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "RefreshScheduler" + toMap();
+    }
+}
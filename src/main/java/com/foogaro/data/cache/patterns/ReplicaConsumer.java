@@ -0,0 +1,293 @@
+package com.foogaro.data.cache.patterns;
+
+import com.foogaro.data.cache.cdc.CdcEvent;
+import gears.GearsBuilder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Consumes a CDC stream in batches from a checkpoint stored in Redis, next to the stream, so that a restarted
+ * registration resumes where the previous one stopped instead of replaying the stream from the beginning.
+ * Each batch is split by entity key across a pool of workers: a worker decodes its entries in stream order,
+ * keeps only the last change of every entity, and applies them holding the GIL.
+ * The checkpoint moves once the whole batch has been applied. A batch with events that failed to apply is retried
+ * from the checkpoint with backoff; once out of attempts, those entries go to a dead-letter stream in the same slot,
+ * as do entries that cannot be decoded, and the checkpoint moves on.
+ */
+public class ReplicaConsumer {
+
+    /**
+     * Decodes a stream entry, made of its field/value pairs; returns null for entries to ignore.
+     */
+    @FunctionalInterface
+    public interface EntryDecoder {
+        CdcEvent decode(String[] fields) throws Exception;
+    }
+
+    /**
+     * Applies a decoded event to Redis, holding the GIL; returns false when the event was stale and skipped.
+     */
+    @FunctionalInterface
+    public interface EventApplier {
+        boolean apply(CdcEvent event) throws Exception;
+    }
+
+    private final String name;
+    private final String stream;
+    private final String checkpointKey;
+    private final String deadLetters;
+    private final int batchSize;
+    private final int parallelism;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+    private final EntryDecoder decoder;
+    private final EventApplier applier;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService retries;
+    private final AtomicBoolean requested = new AtomicBoolean();
+    private final Object drainLock = new Object();
+    private String checkpoint;
+    private int attempts;
+    private long retryAt;
+    private volatile long lagMillis;
+
+    private final LongAdder entries = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+
+    public ReplicaConsumer(String name, String stream, int batchSize, int parallelism, int maxAttempts, long retryBackoffMillis,
+                           EntryDecoder decoder, EventApplier applier) {
+        this.name = name;
+        this.stream = stream;
+        this.checkpointKey = "checkpoint:{" + stream + "}:" + name;
+        this.deadLetters = "deadletter:{" + stream + "}:" + name;
+        this.batchSize = batchSize;
+        this.parallelism = Math.max(1, parallelism);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.decoder = decoder;
+        this.applier = applier;
+        this.workers = Executors.newFixedThreadPool(this.parallelism, r -> {
+            Thread thread = new Thread(r, name + "-cdc");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.retries = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name + "-cdc-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Applies everything added to the stream since the checkpoint. Notifications arriving while a drain is running
+     * are folded into it rather than starting another one.
+     */
+    public void drain() throws Exception {
+        requested.set(true);
+        while (requested.get()) {
+            synchronized (drainLock) {
+                if (!requested.getAndSet(false)) return;
+                boolean full = true;
+                while (full) {
+                    full = drainBatch();
+                }
+            }
+        }
+    }
+
+    private boolean drainBatch() throws Exception {
+        // while a failed batch waits for its retry, notifications do not bring it forward
+        if (System.currentTimeMillis() < retryAt) return false;
+        List<String[]> batch = read();
+        if (batch.isEmpty()) {
+            lagMillis = 0;
+            return false;
+        }
+        // Entries of the same entity share the same Debezium key, hence the same partition, and keep their order.
+        List<List<String[]>> partitions = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) partitions.add(new ArrayList<>());
+        for (String[] entry : batch) {
+            String key = entry.length > 1 ? entry[1] : "";
+            partitions.get(Math.floorMod(key.hashCode(), parallelism)).add(entry);
+        }
+        List<Future<List<Failure>>> futures = new ArrayList<>(parallelism);
+        for (List<String[]> partition : partitions) {
+            if (!partition.isEmpty()) futures.add(workers.submit(() -> applyPartition(partition)));
+        }
+        List<Failure> failures = new ArrayList<>();
+        for (Future<List<Failure>> future : futures) failures.addAll(future.get());
+        long notApplied = failures.stream().filter(failure -> !failure.undecodable).count();
+        if (notApplied > 0 && ++attempts < maxAttempts) {
+            // the checkpoint stays before the failed events: the batch is read again, applied events being skipped as stale
+            retried.increment();
+            long backoff = retryBackoffMillis * attempts;
+            retryAt = System.currentTimeMillis() + backoff;
+            PatternLog.of(name).warning("drain - {} events not applied, attempt {}, retrying in {}ms", notApplied, attempts, backoff);
+            retries.schedule(this::retry, backoff, TimeUnit.MILLISECONDS);
+            return false;
+        }
+        attempts = 0;
+        retryAt = 0;
+
+        String last = batch.get(batch.size() - 1)[0];
+        GearsBuilder.acquireRedisGil();
+        try {
+            for (Failure failure : failures) deadLetter(failure);
+            GearsBuilder.executeArray(new String[]{"SET", checkpointKey, last});
+            checkpoint = last;
+            updateLag();
+        } finally {
+            GearsBuilder.releaseRedisGil();
+        }
+        entries.add(batch.size());
+        batches.increment();
+        return batch.size() >= batchSize;
+    }
+
+    private List<String[]> read() {
+        GearsBuilder.acquireRedisGil();
+        try {
+            if (checkpoint == null) {
+                Object stored = GearsBuilder.executeArray(new String[]{"GET", checkpointKey});
+                checkpoint = stored != null ? stored.toString() : "0";
+            }
+            return StreamEntries.of(GearsBuilder.executeArray(new String[]{"XREAD", "COUNT", String.valueOf(batchSize), "STREAMS", stream, checkpoint}));
+        } finally {
+            GearsBuilder.releaseRedisGil();
+        }
+    }
+
+    private static final class Failure {
+        private final String[] entry;
+        private final String error;
+        private final boolean undecodable;
+
+        private Failure(String[] entry, Exception error, boolean undecodable) {
+            this.entry = entry;
+            this.error = String.valueOf(error.getMessage());
+            this.undecodable = undecodable;
+        }
+    }
+
+    private List<Failure> applyPartition(List<String[]> partition) {
+        List<Failure> failures = new ArrayList<>();
+        Map<String, CdcEvent> latest = new LinkedHashMap<>();
+        Map<String, String[]> entryOf = new LinkedHashMap<>();
+        for (String[] entry : partition) {
+            try {
+                String[] fields = new String[entry.length - 1];
+                System.arraycopy(entry, 1, fields, 0, fields.length);
+                CdcEvent event = decoder.decode(fields);
+                if (event == null || event.getId() == null) continue;
+                if (latest.remove(event.getId()) != null) coalesced.increment();
+                latest.put(event.getId(), event);
+                entryOf.put(event.getId(), entry);
+            } catch (Exception e) {
+                errors.increment();
+                failures.add(new Failure(entry, e, true));
+                PatternLog.of(name).warning("drain - entry {} cannot be decoded: {}", entry[0], e.getMessage());
+            }
+        }
+        if (latest.isEmpty()) return failures;
+        GearsBuilder.acquireRedisGil();
+        try {
+            for (CdcEvent event : latest.values()) {
+                try {
+                    if (applier.apply(event)) applied.increment();
+                    else stale.increment();
+                } catch (Exception e) {
+                    errors.increment();
+                    failures.add(new Failure(entryOf.get(event.getId()), e, false));
+                    PatternLog.of(name).warning("drain - event {} not applied: {}", event, e.getMessage());
+                }
+            }
+        } finally {
+            GearsBuilder.releaseRedisGil();
+        }
+        return failures;
+    }
+
+    private void retry() {
+        try {
+            drain();
+        } catch (Exception e) {
+            errors.increment();
+            PatternLog.of(name).warning("drain - retry failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Moves a stream entry that could not be applied to the dead-letter stream, with its error, before the
+     * checkpoint moves past it. Must be called holding the GIL.
+     */
+    private void deadLetter(Failure failure) {
+        String[] entry = failure.entry;
+        String[] command = new String[entry.length + 6];
+        command[0] = "XADD";
+        command[1] = deadLetters;
+        command[2] = "*";
+        command[3] = "__id";
+        command[4] = entry[0];
+        command[5] = "__error";
+        command[6] = failure.error;
+        System.arraycopy(entry, 1, command, 7, entry.length - 1);
+        GearsBuilder.executeArray(command);
+        deadLettered.increment();
+        PatternLog.of(name).warning("drain - entry {} moved to {}: {}", entry[0], deadLetters, failure.error);
+    }
+
+    private void updateLag() {
+        Object reply = GearsBuilder.executeArray(new String[]{"XREVRANGE", stream, "+", "-", "COUNT", "1"});
+        if (reply instanceof Object[] && ((Object[]) reply).length > 0) {
+            String head = (String) ((Object[]) ((Object[]) reply)[0])[0];
+            lagMillis = Math.max(0, timestamp(head) - timestamp(checkpoint));
+        }
+    }
+
+    private static long timestamp(String id) {
+        int separator = id.indexOf('-');
+        return Long.parseLong(separator > 0 ? id.substring(0, separator) : id);
+    }
+
+    public void close() throws InterruptedException {
+        retries.shutdownNow();
+        workers.shutdown();
+        workers.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("checkpoint", String.valueOf(checkpoint));
+        stats.put("lagMillis", String.valueOf(lagMillis));
+        stats.put("entries", String.valueOf(entries.sum()));
+        stats.put("batches", String.valueOf(batches.sum()));
+        stats.put("applied", String.valueOf(applied.sum()));
+        stats.put("coalesced", String.valueOf(coalesced.sum()));
+        stats.put("stale", String.valueOf(stale.sum()));
+        stats.put("errors", String.valueOf(errors.sum()));
+        stats.put("retried", String.valueOf(retried.sum()));
+        stats.put("deadLettered", String.valueOf(deadLettered.sum()));
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicaConsumer" + toMap();
+    }
+}
@@ -0,0 +1,64 @@
+package com.foogaro.data.cache.patterns;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collapses concurrent loads of the same key into a single call: the first caller runs the loader,
+ * the others wait for its result up to the given timeout.
+ */
+public class SingleFlight<V> {
+
+    private final Map<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public V load(String key, Callable<V> loader, long timeoutMillis) throws Exception {
+        CompletableFuture<V> call = new CompletableFuture<>();
+        CompletableFuture<V> leader = inFlight.putIfAbsent(key, call);
+        if (leader != null) {
+            collapsed.increment();
+            try {
+                return leader.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                timeouts.increment();
+                throw e;
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        loads.increment();
+        try {
+            V value = loader.call();
+            call.complete(value);
+            return value;
+        } catch (Throwable t) {
+            call.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("loads", String.valueOf(loads.sum()));
+        stats.put("collapsed", String.valueOf(collapsed.sum()));
+        stats.put("timeouts", String.valueOf(timeouts.sum()));
+        stats.put("inFlight", String.valueOf(inFlight.size()));
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "SingleFlight" + toMap();
+    }
+}
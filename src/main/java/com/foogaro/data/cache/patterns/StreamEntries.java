@@ -0,0 +1,34 @@
+package com.foogaro.data.cache.patterns;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the entries out of XREAD and XREADGROUP replies.
+ */
+final class StreamEntries {
+
+    private StreamEntries() {
+    }
+
+    /**
+     * The entries of the first stream of the reply, each flattened into its id followed by its fields and values.
+     * Entries deleted while pending come without fields.
+     */
+    static List<String[]> of(Object reply) {
+        if (!(reply instanceof Object[]) || ((Object[]) reply).length == 0) return Collections.emptyList();
+        Object[] items = (Object[]) ((Object[]) ((Object[]) reply)[0])[1];
+        List<String[]> entries = new ArrayList<>(items.length);
+        for (Object item : items) {
+            Object[] entry = (Object[]) item;
+            Object[] fields = entry.length > 1 && entry[1] != null ? (Object[]) entry[1] : null;
+            int length = fields != null ? fields.length : 0;
+            String[] flat = new String[1 + length];
+            flat[0] = (String) entry[0];
+            for (int i = 0; i < length; i++) flat[i + 1] = (String) fields[i];
+            entries.add(flat);
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,60 @@
+package com.foogaro.data.cache.patterns;
+
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The time to live given to the keys the caching layer writes.
+ */
+public final class TtlPolicy implements Serializable {
+
+    public static final TtlPolicy NONE = new TtlPolicy(0, 0);
+
+    private final long seconds;
+    private final double jitter;
+
+    private TtlPolicy(long seconds, double jitter) {
+        this.seconds = seconds;
+        this.jitter = Math.max(0, Math.min(1, jitter));
+    }
+
+    public static TtlPolicy fixed(long seconds) {
+        return seconds > 0 ? new TtlPolicy(seconds, 0) : NONE;
+    }
+
+    /**
+     * A TTL drawn for every key within the given fraction above or below the given seconds, so that keys
+     * written together, as by a warm-up or a burst of misses, do not all expire and get reloaded at once.
+     */
+    public static TtlPolicy jittered(long seconds, double jitter) {
+        return seconds > 0 ? new TtlPolicy(seconds, jitter) : NONE;
+    }
+
+    public boolean isNone() {
+        return seconds <= 0;
+    }
+
+    /**
+     * The TTL, in seconds, of the next key written; 0 for none.
+     */
+    public long nextSeconds() {
+        if (seconds <= 0) return 0;
+        long spread = (long) (seconds * jitter);
+        if (spread == 0) return seconds;
+        return Math.max(1, seconds - spread + ThreadLocalRandom.current().nextLong(2 * spread + 1));
+    }
+
+    /**
+     * The EXPIRE command giving the key its TTL, or null for none.
+     */
+    public String[] expire(String key) {
+        long ttl = nextSeconds();
+        return ttl > 0 ? new String[]{"EXPIRE", key, String.valueOf(ttl)} : null;
+    }
+
+    @Override
+    public String toString() {
+        if (seconds <= 0) return "none";
+        return jitter > 0 ? seconds + "s +/-" + Math.round(jitter * 100) + "%" : seconds + "s";
+    }
+}
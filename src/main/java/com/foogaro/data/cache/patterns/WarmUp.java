@@ -0,0 +1,235 @@
+package com.foogaro.data.cache.patterns;
+
+import com.foogaro.data.cache.codec.EntityCodec;
+import com.foogaro.data.jpa.HibernateUtils;
+import gears.GearsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Loads entities from the database into the cache in the background, split by primary-key ranges across worker
+ * threads, each reading its range in pages ordered by primary key. Entities are written in batches of HSETs,
+ * one GIL acquisition per batch, with notifications suppressed; keys already in the cache are left untouched, and
+ * so are keys of hash slots this shard does not own. Every page is a query of its own through the pattern's circuit
+ * breaker, so that a failing database stops the warm-up between pages and a half-open probe lasts a single page.
+ */
+public class WarmUp {
+
+    /**
+     * Runs a database call on behalf of the pattern, through its circuit breaker and metrics.
+     */
+    @FunctionalInterface
+    public interface Database {
+        <T> T call(Supplier<T> query);
+    }
+
+    private static final long PROGRESS_INTERVAL_MILLIS = 5000;
+
+    private final String name;
+    private final EntityCodec<Object> codec;
+    private final WarmUpPolicy policy;
+    private final int threads;
+    private final int fetchSize;
+    private final int writeBatchSize;
+    private final TtlPolicy ttlPolicy;
+    private final Database database;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService progress;
+    private volatile boolean stopped;
+    private volatile String state = "pending";
+    private volatile ClusterSlots slots;
+    private long startedAt;
+    private long finishedAt;
+
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder notLocal = new LongAdder();
+
+    public WarmUp(String name, EntityCodec<Object> codec, WarmUpPolicy policy, int threads, int fetchSize, int writeBatchSize,
+                  TtlPolicy ttlPolicy, Database database) {
+        this.name = name;
+        this.codec = codec;
+        this.policy = policy;
+        this.threads = Math.max(1, threads);
+        this.fetchSize = fetchSize;
+        this.writeBatchSize = writeBatchSize;
+        this.ttlPolicy = ttlPolicy;
+        this.database = database;
+        this.workers = Executors.newFixedThreadPool(this.threads + 1, r -> daemon(r, name + "-warmup"));
+        this.progress = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, name + "-warmup-progress"));
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    public void start() {
+        if (policy.getKind() == WarmUpPolicy.Kind.NONE) return;
+        workers.execute(this::run);
+    }
+
+    private void run() {
+        startedAt = System.currentTimeMillis();
+        state = "running";
+        PatternLog.of(name).notice("warmUp - loading {} with {} threads", policy, threads);
+        progress.scheduleWithFixedDelay(() -> PatternLog.of(name).notice("warmUp - {}", toMap()),
+                PROGRESS_INTERVAL_MILLIS, PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            GearsBuilder.acquireRedisGil();
+            try {
+                slots = ClusterSlots.local();
+            } finally {
+                GearsBuilder.releaseRedisGil();
+            }
+            List<Future<?>> parts = policy.getKind() == WarmUpPolicy.Kind.WARM_LIST ? loadWarmList() : loadRanges();
+            for (Future<?> part : parts) part.get();
+            state = stopped ? "stopped" : "done";
+        } catch (Exception e) {
+            state = "failed";
+            PatternLog.of(name).warning("warmUp - failed: {}", e.getMessage());
+        } finally {
+            finishedAt = System.currentTimeMillis();
+            progress.shutdownNow();
+            PatternLog.of(name).notice("warmUp - {}", toMap());
+        }
+    }
+
+    private List<Future<?>> loadRanges() {
+        int newest = policy.getKind() == WarmUpPolicy.Kind.NEWEST ? policy.getLimit() : 0;
+        Object[] range = database.call(() -> HibernateUtils.idRange(codec.getType(), newest));
+        if (range == null) return Collections.emptyList();
+        List<Future<?>> parts = new ArrayList<>();
+        if (!(range[0] instanceof Number) || threads == 1) {
+            parts.add(workers.submit(() -> loadRange(range[0], range[1])));
+            return parts;
+        }
+        long low = ((Number) range[0]).longValue();
+        long high = ((Number) range[1]).longValue();
+        long step = Math.max(1, (high - low) / threads + 1);
+        for (long from = low; from <= high && from >= low; from += step) {
+            Object fromId = toId(from);
+            Object toId = toId(Math.min(high, from + step - 1));
+            parts.add(workers.submit(() -> loadRange(fromId, toId)));
+        }
+        return parts;
+    }
+
+    private Object toId(long id) {
+        return codec.idOf(codec.keyOf(id));
+    }
+
+    private void loadRange(Object fromId, Object toId) {
+        List<Object> batch = new ArrayList<>(writeBatchSize);
+        Object from = fromId;
+        boolean fromInclusive = true;
+        while (!stopped) {
+            Object after = from;
+            boolean inclusive = fromInclusive;
+            List<Object> page = database.call(() -> HibernateUtils.page(codec.getType(), after, toId, inclusive, fetchSize));
+            rows.add(page.size());
+            for (Object entity : page) {
+                batch.add(entity);
+                if (batch.size() >= writeBatchSize) write(batch);
+            }
+            write(batch);
+            if (page.size() < fetchSize) return;
+            from = codec.getId(page.get(page.size() - 1));
+            fromInclusive = false;
+        }
+    }
+
+    private List<Future<?>> loadWarmList() {
+        List<Object> ids = new ArrayList<>();
+        GearsBuilder.acquireRedisGil();
+        try {
+            Object members = GearsBuilder.executeArray(new String[]{"SMEMBERS", policy.getWarmListKey()});
+            if (members instanceof Object[]) {
+                for (Object member : (Object[]) members) ids.add(codec.idOf(codec.keyOf(member)));
+            }
+        } finally {
+            GearsBuilder.releaseRedisGil();
+        }
+        List<Future<?>> parts = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += writeBatchSize) {
+            List<Object> chunk = ids.subList(from, Math.min(ids.size(), from + writeBatchSize));
+            parts.add(workers.submit(() -> {
+                if (stopped) return;
+                List<Object> batch = new ArrayList<>();
+                for (Object entity : database.call(() -> HibernateUtils.findAll(codec.getType(), chunk))) {
+                    if (entity != null) batch.add(entity);
+                }
+                rows.add(batch.size());
+                write(batch);
+            }));
+        }
+        return parts;
+    }
+
+    private void write(List<Object> batch) {
+        if (batch.isEmpty()) return;
+        GearsBuilder.acquireRedisGil();
+        try {
+            for (Object entity : batch) {
+                String key = codec.keyOf(codec.getId(entity));
+                if (!slots.owns(key)) {
+                    notLocal.increment();
+                    continue;
+                }
+                if (((Number) GearsBuilder.executeArray(new String[]{"EXISTS", key})).longValue() > 0) {
+                    skipped.increment();
+                    continue;
+                }
+                Origin.WARM_UP.execute(codec.write(key, entity));
+                String[] expire = ttlPolicy.expire(key);
+                if (expire != null) {
+                    Origin.WARM_UP.execute(expire);
+                    RefreshScheduler.trackExpiring(codec.getKeyPrefix(), key);
+                }
+                written.increment();
+            }
+        } finally {
+            GearsBuilder.releaseRedisGil();
+        }
+        batch.clear();
+    }
+
+    public void close() {
+        stopped = true;
+        progress.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    public Map<String, String> toMap() {
+        long end = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+        long elapsed = startedAt > 0 ? Math.max(1, end - startedAt) : 0;
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("state", state);
+        stats.put("policy", policy.toString());
+        stats.put("rows", String.valueOf(rows.sum()));
+        stats.put("written", String.valueOf(written.sum()));
+        stats.put("skipped", String.valueOf(skipped.sum()));
+        stats.put("notLocal", String.valueOf(notLocal.sum()));
+        stats.put("elapsedMillis", String.valueOf(elapsed));
+        stats.put("rowsPerSecond", String.valueOf(elapsed > 0 ? rows.sum() * 1000 / elapsed : 0));
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "WarmUp" + toMap();
+    }
+}
@@ -0,0 +1,59 @@
+package com.foogaro.data.cache.patterns;
+
+import java.io.Serializable;
+
+/**
+ * Which entities are loaded into the cache when a pattern is registered.
+ */
+public final class WarmUpPolicy implements Serializable {
+
+    public enum Kind { NONE, ALL, NEWEST, WARM_LIST }
+
+    public static final WarmUpPolicy NONE = new WarmUpPolicy(Kind.NONE, 0, null);
+    public static final WarmUpPolicy ALL = new WarmUpPolicy(Kind.ALL, 0, null);
+
+    private final Kind kind;
+    private final int limit;
+    private final String warmListKey;
+
+    private WarmUpPolicy(Kind kind, int limit, String warmListKey) {
+        this.kind = kind;
+        this.limit = limit;
+        this.warmListKey = warmListKey;
+    }
+
+    /**
+     * The entities with the highest ids.
+     */
+    public static WarmUpPolicy newest(int limit) {
+        return new WarmUpPolicy(Kind.NEWEST, limit, null);
+    }
+
+    /**
+     * The entities whose ids are members of the given Redis set.
+     */
+    public static WarmUpPolicy warmList(String key) {
+        return new WarmUpPolicy(Kind.WARM_LIST, 0, key);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public String getWarmListKey() {
+        return warmListKey;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case NEWEST: return "newest " + limit;
+            case WARM_LIST: return "ids in " + warmListKey;
+            default: return kind.name().toLowerCase();
+        }
+    }
+}
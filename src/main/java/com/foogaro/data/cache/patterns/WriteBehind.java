@@ -1,10 +1,23 @@
 package com.foogaro.data.cache.patterns;
 
+import com.foogaro.data.cache.Cached;
+import com.foogaro.data.jpa.Backend;
 import gears.ExecutionMode;
+import gears.records.KeysReaderRecord;
+
+import java.util.Map;
 
 import static com.foogaro.data.cache.EventType.HSET;
+import static com.foogaro.data.cache.EventType.SET;
+
+public class WriteBehind extends Pattern {
 
-public abstract class WriteBehind extends Pattern {
+    protected WriteBehind() {
+    }
+
+    public WriteBehind(Class<?> entityClass) {
+        super(entityClass);
+    }
 
     @Override
     public ExecutionMode getExecutionMode() {
@@ -13,7 +26,102 @@ public abstract class WriteBehind extends Pattern {
 
     @Override
     public String[] getEventsType() {
-        return new String[]{HSET.getEventType()};
+        return new String[]{isCompact() ? SET.getEventType() : HSET.getEventType()};
+    }
+
+    /**
+     * Maximum number of journal entries read and written to the database in one batch; reaching it triggers a drain.
+     */
+    public int getBatchSize() {
+        return 500;
+    }
+
+    /**
+     * Interval, in milliseconds, at which the journal is drained.
+     */
+    public long getFlushIntervalMillis() {
+        return 250;
+    }
+
+    /**
+     * Initial delay, in milliseconds, before a failed batch is retried; it doubles on every consecutive failure.
+     */
+    public long getRetryBackoffMillis() {
+        return 500;
+    }
+
+    public long getMaxRetryBackoffMillis() {
+        return 30_000;
+    }
+
+    /**
+     * Journal length above which new events are slowed down until the database catches up.
+     */
+    public long getJournalMaxLength() {
+        return 100_000;
+    }
+
+    /**
+     * How entities are persisted: Hibernate by default, or direct JDBC upserts, which save the SELECT
+     * Hibernate runs before every write of an entity with an assigned id.
+     */
+    public Backend getBackend() {
+        Cached cached = getEntityClass().getAnnotation(Cached.class);
+        return cached != null ? cached.backend() : Backend.HIBERNATE;
+    }
+
+    protected Object toEntity(String key, Map<String, String> hash) {
+        return codec().decode(key, hash);
+    }
+
+    @Override
+    public void onProcessEvent(KeysReaderRecord record) {
+        try {
+            log().verbose("Record: [{}]", record);
+            Map<String, String> hash = valuesOf(record);
+            if (hash == null) {
+                log().warning("onProcessEvent - cannot decode {}, not journaled", record.getKey());
+                return;
+            }
+            journal().append(record.getKey(), hash);
+        } catch (Throwable t) {
+            metrics().error();
+            t.printStackTrace();
+        }
+    }
+
+    @Override
+    public void onRegistered(String registrationId) throws Exception {
+        super.onRegistered(registrationId);
+        // Starts draining what a previous registration left in the journal.
+        journal();
+    }
+
+    @Override
+    protected Map<String, String> stats() {
+        Map<String, String> stats = super.stats();
+        WriteBehindJournal journal = peekRuntime("journal");
+        if (journal != null) put(stats, "journal", journal.toMap());
+        return stats;
+    }
+
+    @Override
+    public void onUnregistered() throws Exception {
+        WriteBehindJournal journal = removeRuntime("journal");
+        if (journal != null) {
+            journal.close();
+            log().notice("onUnregistered - {}", journal);
+        }
+        super.onUnregistered();
+    }
+
+    protected WriteBehindJournal journal() {
+        return runtime("journal", () -> new WriteBehindJournal(getName(), getBatchSize(),
+                getFlushIntervalMillis(), getRetryBackoffMillis(), getMaxRetryBackoffMillis(), getJournalMaxLength(),
+                this::toEntity, entities -> {
+                    metrics().batch(entities.size());
+                    database(() -> getBackend().saveAll(entities));
+                }));
     }
 
 }
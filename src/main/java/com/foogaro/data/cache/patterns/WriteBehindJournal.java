@@ -0,0 +1,276 @@
+package com.foogaro.data.cache.patterns;
+
+import gears.GearsBuilder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Durable write-behind queue backed by a Redis Stream local to the shard.
+ * Every change is appended to the stream and drained by a consumer group in batches: updates to the same key
+ * within a batch are coalesced to the last value, and entries are acknowledged only once the database commit
+ * succeeded. Failed batches stay pending and are retried with exponential backoff, also across restarts.
+ */
+public class WriteBehindJournal {
+
+    static final String KEY_FIELD = "__key";
+    private static final String GROUP = "write-behind";
+
+    private final String name;
+    private final String stream;
+    private final String deadLetters;
+    private final int batchSize;
+    private final long retryBackoffMillis;
+    private final long maxRetryBackoffMillis;
+    private final long maxLength;
+    private final BiFunction<String, Map<String, String>, Object> decoder;
+    private final Consumer<List<Object>> writer;
+    private final ScheduledExecutorService scheduler;
+    private final Object drainLock = new Object();
+    private final AtomicInteger appendedSinceDrain = new AtomicInteger();
+    private volatile boolean groupCreated;
+    private int attempts;
+    private long nextRetryAt;
+    private volatile long lag;
+    private volatile long ageMillis;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    public WriteBehindJournal(String name, int batchSize, long flushIntervalMillis, long retryBackoffMillis,
+                              long maxRetryBackoffMillis, long maxLength,
+                              BiFunction<String, Map<String, String>, Object> decoder, Consumer<List<Object>> writer) {
+        this.name = name;
+        this.stream = streamOf(name);
+        this.deadLetters = stream + ":dead";
+        this.batchSize = batchSize;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.maxRetryBackoffMillis = maxRetryBackoffMillis;
+        this.maxLength = maxLength;
+        this.decoder = decoder;
+        this.writer = writer;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name + "-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::drainQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The stream journaling the changes of the given name on this shard.
+     */
+    public static String streamOf(String name) {
+        return "wb:journal:{" + GearsBuilder.hashtag() + "}:" + name;
+    }
+
+    /**
+     * Whether every change appended has been written to the database.
+     */
+    public boolean isEmpty() {
+        return ((Number) execute("XLEN", stream)).longValue() == 0;
+    }
+
+    /**
+     * Appends the change to the journal. When the journal is over its maximum length the calling thread is
+     * slowed down, so that the event pipeline cannot outrun the database indefinitely.
+     */
+    public void append(String key, Map<String, String> hash) throws InterruptedException {
+        String[] command = new String[5 + hash.size() * 2];
+        int i = 0;
+        command[i++] = "XADD";
+        command[i++] = stream;
+        command[i++] = "*";
+        command[i++] = KEY_FIELD;
+        command[i++] = key;
+        for (Map.Entry<String, String> entry : hash.entrySet()) {
+            command[i++] = entry.getKey();
+            command[i++] = entry.getValue();
+        }
+        execute(command);
+        received.increment();
+        if (appendedSinceDrain.incrementAndGet() >= batchSize) {
+            appendedSinceDrain.set(0);
+            scheduler.execute(this::drainQuietly);
+        }
+        if (lag >= maxLength) {
+            throttled.increment();
+            long wait = Math.min(maxRetryBackoffMillis, retryBackoffMillis * (lag / maxLength));
+            TimeUnit.MILLISECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Writes pending entries to the database until the journal is empty or a batch fails.
+     */
+    public void drain() {
+        synchronized (drainLock) {
+            ensureGroup();
+            if (System.currentTimeMillis() < nextRetryAt) return;
+            // Entries delivered but never acknowledged come first: they are retries, or leftovers of a previous run.
+            boolean more = drainBatch("0");
+            while (more) {
+                more = drainBatch(">");
+            }
+            updateBackpressure();
+        }
+    }
+
+    private boolean drainBatch(String from) {
+        List<String[]> entries = read(from);
+        if (entries.isEmpty()) return from.equals("0");
+        Map<String, Object> latest = new LinkedHashMap<>();
+        List<String> ids = new ArrayList<>(entries.size());
+        for (String[] entry : entries) {
+            ids.add(entry[0]);
+            if (entry.length < 3) continue;
+            Map<String, String> hash = new LinkedHashMap<>();
+            String key = null;
+            for (int i = 1; i + 1 < entry.length; i += 2) {
+                if (KEY_FIELD.equals(entry[i])) key = entry[i + 1];
+                else hash.put(entry[i], entry[i + 1]);
+            }
+            try {
+                if (latest.put(key, decoder.apply(key, hash)) != null) coalesced.increment();
+            } catch (RuntimeException e) {
+                deadLetter(entry, e);
+            }
+        }
+        try {
+            if (!latest.isEmpty()) writer.accept(new ArrayList<>(latest.values()));
+        } catch (RuntimeException e) {
+            failures.increment();
+            long backoff = Math.min(maxRetryBackoffMillis, retryBackoffMillis << Math.min(attempts++, 16));
+            nextRetryAt = System.currentTimeMillis() + backoff;
+            PatternLog.of(name).warning(() -> "drain - " + entries.size() + " entries failed, attempt " + attempts + ", retrying in " + backoff + "ms: " + e.getMessage());
+            return false;
+        }
+        attempts = 0;
+        nextRetryAt = 0;
+        acknowledge(ids);
+        written.add(latest.size());
+        batches.increment();
+        PatternLog.of(name).verbose("drain - {} entities written from {} entries", latest.size(), entries.size());
+        return entries.size() >= batchSize || from.equals("0");
+    }
+
+    private void deadLetter(String[] entry, RuntimeException e) {
+        deadLettered.increment();
+        String[] command = new String[entry.length + 4];
+        command[0] = "XADD";
+        command[1] = deadLetters;
+        command[2] = "*";
+        command[3] = "__error";
+        command[4] = String.valueOf(e.getMessage());
+        System.arraycopy(entry, 1, command, 5, entry.length - 1);
+        execute(command);
+        PatternLog.of(name).warning("drain - entry {} cannot be decoded, moved to {}: {}", entry[0], deadLetters, e.getMessage());
+    }
+
+    private void acknowledge(List<String> ids) {
+        String[] ack = new String[3 + ids.size()];
+        ack[0] = "XACK";
+        ack[1] = stream;
+        ack[2] = GROUP;
+        String[] del = new String[2 + ids.size()];
+        del[0] = "XDEL";
+        del[1] = stream;
+        for (int i = 0; i < ids.size(); i++) {
+            ack[3 + i] = ids.get(i);
+            del[2 + i] = ids.get(i);
+        }
+        execute(ack);
+        execute(del);
+    }
+
+    private List<String[]> read(String from) {
+        return StreamEntries.of(execute("XREADGROUP", "GROUP", GROUP, name, "COUNT", String.valueOf(batchSize), "STREAMS", stream, from));
+    }
+
+    private void ensureGroup() {
+        if (groupCreated) return;
+        try {
+            execute("XGROUP", "CREATE", stream, GROUP, "0", "MKSTREAM");
+        } catch (RuntimeException e) {
+            if (e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")) throw e;
+        }
+        groupCreated = true;
+    }
+
+    private void updateBackpressure() {
+        lag = ((Number) execute("XLEN", stream)).longValue();
+        long age = 0;
+        if (lag > 0) {
+            Object reply = execute("XRANGE", stream, "-", "+", "COUNT", "1");
+            if (reply instanceof Object[] && ((Object[]) reply).length > 0) {
+                String id = (String) ((Object[]) ((Object[]) reply)[0])[0];
+                age = System.currentTimeMillis() - Long.parseLong(id.substring(0, id.indexOf('-')));
+            }
+        }
+        ageMillis = age;
+    }
+
+    private void drainQuietly() {
+        try {
+            drain();
+        } catch (Throwable t) {
+            PatternLog.of(name).warning("drain - failed: {}", t.getMessage());
+        }
+    }
+
+    private static Object execute(String... command) {
+        GearsBuilder.acquireRedisGil();
+        try {
+            return GearsBuilder.executeArray(command);
+        } finally {
+            GearsBuilder.releaseRedisGil();
+        }
+    }
+
+    /**
+     * Stops the drainer after a last attempt to write what is pending; anything left stays in the stream.
+     */
+    public void close() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        drainQuietly();
+    }
+
+    public boolean isBackpressured() {
+        return lag >= maxLength;
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("stream", stream);
+        stats.put("received", String.valueOf(received.sum()));
+        stats.put("coalesced", String.valueOf(coalesced.sum()));
+        stats.put("written", String.valueOf(written.sum()));
+        stats.put("batches", String.valueOf(batches.sum()));
+        stats.put("failures", String.valueOf(failures.sum()));
+        stats.put("deadLettered", String.valueOf(deadLettered.sum()));
+        stats.put("throttled", String.valueOf(throttled.sum()));
+        stats.put("lag", String.valueOf(lag));
+        stats.put("ageMillis", String.valueOf(ageMillis));
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBehindJournal" + toMap();
+    }
+}
@@ -0,0 +1,110 @@
+package com.foogaro.data.cache.patterns;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers, per key, a 64-bit hash of every field as last persisted, in a bounded LRU map.
+ * Comparing an incoming hash with it tells whether a write changes nothing, or which fields it changes.
+ * It reflects what this pattern persisted, so it is forgotten as soon as the caching layer writes the key with a
+ * value taken from the database, which may hold changes made by other writers.
+ */
+public class WriteFingerprints {
+
+    private static final long MISSING = 0x9E3779B97F4A7C15L;
+    private static final Set<WriteFingerprints> OPEN = ConcurrentHashMap.newKeySet();
+
+    private final String[] fields;
+    private final Map<String, long[]> fingerprints;
+
+    private final LongAdder unchanged = new LongAdder();
+    private final LongAdder partial = new LongAdder();
+    private final LongAdder full = new LongAdder();
+
+    public WriteFingerprints(String[] fields, int maxEntries) {
+        this.fields = fields;
+        this.fingerprints = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        OPEN.add(this);
+    }
+
+    /**
+     * Forgets the key in every open instance, for writes that do not come from a client.
+     */
+    public static void forgetEverywhere(String key) {
+        for (WriteFingerprints fingerprints : OPEN) fingerprints.forget(key);
+    }
+
+    public long[] fingerprint(Map<String, String> hash) {
+        long[] fingerprint = new long[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            String value = hash.get(fields[i]);
+            fingerprint[i] = value == null ? MISSING : hash(value);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Returns the names of the fields that differ from the last persisted state: an empty array when nothing changed,
+     * null when the key has no known state and must be written entirely.
+     */
+    public synchronized String[] changedFields(String key, long[] fingerprint) {
+        long[] previous = fingerprints.get(key);
+        if (previous == null) {
+            full.increment();
+            return null;
+        }
+        List<String> changed = new ArrayList<>();
+        for (int i = 0; i < fields.length; i++) {
+            if (previous[i] != fingerprint[i]) changed.add(fields[i]);
+        }
+        if (changed.isEmpty()) unchanged.increment();
+        else partial.increment();
+        return changed.toArray(new String[0]);
+    }
+
+    public synchronized void persisted(String key, long[] fingerprint) {
+        fingerprints.put(key, fingerprint);
+    }
+
+    public synchronized void forget(String key) {
+        fingerprints.remove(key);
+    }
+
+    public void close() {
+        OPEN.remove(this);
+    }
+
+    private static long hash(String value) {
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public synchronized Map<String, String> toMap() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("tracked", String.valueOf(fingerprints.size()));
+        stats.put("unchanged", String.valueOf(unchanged.sum()));
+        stats.put("partial", String.valueOf(partial.sum()));
+        stats.put("full", String.valueOf(full.sum()));
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteFingerprints" + toMap();
+    }
+}
@@ -1,10 +1,25 @@
 package com.foogaro.data.cache.patterns;
 
+import com.foogaro.data.cache.Cached;
+import com.foogaro.data.jpa.Backend;
 import gears.ExecutionMode;
+import gears.GearsBuilder;
+import gears.records.KeysReaderRecord;
+
+import java.util.Arrays;
+import java.util.Map;
 
 import static com.foogaro.data.cache.EventType.HSET;
+import static com.foogaro.data.cache.EventType.SET;
+
+public class WriteThrough extends Pattern {
 
-public abstract class WriteThrough extends Pattern {
+    protected WriteThrough() {
+    }
+
+    public WriteThrough(Class<?> entityClass) {
+        super(entityClass);
+    }
 
     @Override
     public ExecutionMode getExecutionMode() {
@@ -13,7 +28,157 @@ public abstract class WriteThrough extends Pattern {
 
     @Override
     public String[] getEventsType() {
-        return new String[]{HSET.getEventType()};
+        return new String[]{isCompact() ? SET.getEventType() : HSET.getEventType()};
+    }
+
+    /**
+     * Writes are persisted inline, one at a time in the order Redis applied them: on a worker pool two writes of
+     * the same key could reach the database out of order, and a write rejected or timed out would never be saved.
+     */
+    @Override
+    public final boolean isAsync() {
+        return false;
+    }
+
+    /**
+     * How entities are persisted: Hibernate by default, or direct JDBC upserts, which save the SELECT
+     * Hibernate runs before every write of an entity with an assigned id.
+     */
+    public Backend getBackend() {
+        Cached cached = getEntityClass().getAnnotation(Cached.class);
+        return cached != null ? cached.backend() : Backend.HIBERNATE;
+    }
+
+    /**
+     * How many keys keep a fingerprint of their last persisted state, used to skip writes that change nothing
+     * and to update only the changed columns; 0 disables it and every write saves the whole entity.
+     */
+    public int getFingerprintMaxEntries() {
+        return 100000;
+    }
+
+    protected Object toEntity(String key, Map<String, String> hash) {
+        return codec().decode(key, hash);
+    }
+
+    @Override
+    public void onProcessEvent(KeysReaderRecord record) {
+        try {
+            log().verbose("Record: [{}]", record);
+            Map<String, String> hash = valuesOf(record);
+            if (hash == null) {
+                log().warning("onProcessEvent - cannot decode {}, not persisted", record.getKey());
+                return;
+            }
+            WriteBehindJournal deferred = peekRuntime("deferred");
+            if (deferred != null && !deferred.isEmpty()) {
+                // queued behind the writes still deferred, which may include older values of the same key
+                defer(record.getKey(), hash);
+            } else {
+                try {
+                    persist(record.getKey(), hash);
+                } catch (CircuitBreaker.OpenException e) {
+                    log().warning("onProcessEvent - {}, {} deferred", e.getMessage(), record.getKey());
+                    defer(record.getKey(), hash);
+                }
+            }
+            withGil(() -> {
+                NegativeCache.invalidate(record.getKey());
+                return null;
+            });
+            log().verbose("Record {} processed.", record.getKey());
+        } catch (Throwable t) {
+            metrics().error();
+            t.printStackTrace();
+        }
+    }
+
+    private void persist(String key, Map<String, String> hash) {
+        if (getFingerprintMaxEntries() > 0) {
+            persistChanges(key, hash);
+        } else {
+            Object entity = toEntity(key, hash);
+            database(() -> getBackend().save(entity));
+        }
+    }
+
+    /**
+     * Journals a write the database cannot take now, the client's HSET having already changed the cache: it is
+     * retried with backoff until the breaker lets it through, and later writes follow it until the journal is empty.
+     */
+    private void defer(String key, Map<String, String> hash) throws InterruptedException {
+        if (getFingerprintMaxEntries() > 0) fingerprints().forget(key);
+        deferred().append(key, hash);
+    }
+
+    private void persistChanges(String key, Map<String, String> hash) {
+        WriteFingerprints fingerprints = fingerprints();
+        long[] fingerprint = fingerprints.fingerprint(hash);
+        String[] changed = fingerprints.changedFields(key, fingerprint);
+        if (changed != null && changed.length == 0) return;
+        try {
+            Object entity = toEntity(key, hash);
+            database(() -> {
+                if (changed == null || !getBackend().update(entity, changed)) {
+                    getBackend().save(entity);
+                }
+            });
+            fingerprints.persisted(key, fingerprint);
+        } catch (RuntimeException e) {
+            fingerprints.forget(key);
+            throw e;
+        }
+    }
+
+    @Override
+    protected Map<String, String> stats() {
+        Map<String, String> stats = super.stats();
+        WriteFingerprints fingerprints = peekRuntime("fingerprints");
+        if (fingerprints != null) put(stats, "fingerprints", fingerprints.toMap());
+        WriteBehindJournal deferred = peekRuntime("deferred");
+        if (deferred != null) put(stats, "deferred", deferred.toMap());
+        return stats;
+    }
+
+    @Override
+    public void onRegistered(String registrationId) throws Exception {
+        super.onRegistered(registrationId);
+        // Resumes writing what a previous registration deferred.
+        GearsBuilder.acquireRedisGil();
+        try {
+            Object journaled = GearsBuilder.executeArray(new String[]{"EXISTS", WriteBehindJournal.streamOf(getName())});
+            if (((Number) journaled).longValue() > 0) deferred();
+        } finally {
+            GearsBuilder.releaseRedisGil();
+        }
+    }
+
+    @Override
+    public void onUnregistered() throws Exception {
+        WriteBehindJournal deferred = removeRuntime("deferred");
+        if (deferred != null) {
+            deferred.close();
+            log().notice("onUnregistered - {}", deferred);
+        }
+        WriteFingerprints fingerprints = removeRuntime("fingerprints");
+        if (fingerprints != null) {
+            fingerprints.close();
+            log().notice("onUnregistered - {}", fingerprints);
+        }
+        super.onUnregistered();
+    }
+
+    /**
+     * The journal of the writes deferred while the circuit breaker is open, drained through the breaker.
+     */
+    protected WriteBehindJournal deferred() {
+        return runtime("deferred", () -> new WriteBehindJournal(getName(), 500, 250, 500, getBreakerOpenMillis(),
+                Long.MAX_VALUE, this::toEntity, entities -> database(() -> getBackend().saveAll(entities))));
+    }
+
+    protected WriteFingerprints fingerprints() {
+        return runtime("fingerprints", () -> new WriteFingerprints(Arrays.stream(codec().fieldNames())
+                .filter(name -> !name.equals(codec().getIdName())).toArray(String[]::new), getFingerprintMaxEntries()));
     }
 
 }
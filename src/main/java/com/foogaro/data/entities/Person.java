@@ -1,10 +1,16 @@
 package com.foogaro.data.entities;
 
+import com.foogaro.data.cache.Cached;
+import com.foogaro.data.jpa.Backend;
+
 import javax.persistence.*;
 import java.io.Serializable;
 
+import static com.foogaro.data.cache.patterns.CachingPattern.*;
+
 @Entity
 @Table(name = "person")
+@Cached(patterns = {READ_THROUGH, WRITE_THROUGH, REFRESH_AHEAD}, backend = Backend.JDBC, ttlSeconds = 3600, ttlJitter = 0.2)
 public class Person implements Serializable {
 
     @Id
@@ -0,0 +1,52 @@
+package com.foogaro.data.jpa;
+
+import java.util.Collection;
+
+/**
+ * How write patterns persist entities: through a Hibernate session, or with direct JDBC upserts.
+ */
+public enum Backend {
+
+    HIBERNATE {
+        @Override
+        public void save(Object entity) {
+            HibernateUtils.saveOrUpdate(entity);
+        }
+
+        @Override
+        public void saveAll(Collection<?> entities) {
+            HibernateUtils.saveOrUpdateAll(entities);
+        }
+
+        @Override
+        public boolean update(Object entity, String[] properties) {
+            return HibernateUtils.update(entity, properties);
+        }
+    },
+
+    JDBC {
+        @Override
+        public void save(Object entity) {
+            JdbcUpsert.upsert(entity);
+        }
+
+        @Override
+        public void saveAll(Collection<?> entities) {
+            JdbcUpsert.upsertAll(entities);
+        }
+
+        @Override
+        public boolean update(Object entity, String[] properties) {
+            return JdbcUpsert.update(entity, properties);
+        }
+    };
+
+    public abstract void save(Object entity);
+
+    public abstract void saveAll(Collection<?> entities);
+
+    /**
+     * Updates only the given properties of an existing row; returns false when the row does not exist.
+     */
+    public abstract boolean update(Object entity, String[] properties);
+}
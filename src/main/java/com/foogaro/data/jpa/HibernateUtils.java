@@ -1,29 +1,254 @@
 package com.foogaro.data.jpa;
 
-import com.foogaro.data.entities.Person;
+import com.foogaro.data.cache.codec.EntityCodec;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.MutationQuery;
+import org.hibernate.query.Query;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
 
 public class HibernateUtils {
 
-    private static Session getSession() {
-        Configuration configuration = new Configuration();
-        configuration.configure("hibernate.cfg.xml");
-        configuration.addAnnotatedClass(Person.class);
-        SessionFactory sessionFactory = configuration.buildSessionFactory();
-        Session session = sessionFactory.openSession();
-        return session;
+    private static final String HIKARI_PREFIX = "hibernate.hikari.";
+
+    private static int references;
+    private static HikariDataSource dataSource;
+    private static SessionFactory sessionFactory;
+    private static PoolMetrics poolMetrics;
+    private static final Set<Class<?>> entityClasses = new LinkedHashSet<>();
+
+    /**
+     * Adds the entity to the classes the SessionFactory maps: from its {@code <SimpleName>.hbm.xml} resource or,
+     * without one, from its Jakarta Persistence annotations. Every entity must be mapped before the factory is built.
+     */
+    public static synchronized void map(Class<?> entityClass) {
+        if (entityClasses.contains(entityClass)) return;
+        if (mappingResource(entityClass) == null && !entityClass.isAnnotationPresent(jakarta.persistence.Entity.class)) {
+            throw new IllegalArgumentException(entityClass.getName() + " has no Hibernate mapping: add "
+                    + entityClass.getSimpleName() + ".hbm.xml or annotate it with jakarta.persistence.Entity");
+        }
+        if (sessionFactory != null) {
+            throw new IllegalStateException(entityClass.getName() + " is registered after the SessionFactory was built for "
+                    + entityClasses + ": register every entity before the first pattern starts");
+        }
+        entityClasses.add(entityClass);
+    }
+
+    private static String mappingResource(Class<?> entityClass) {
+        String resource = entityClass.getSimpleName() + ".hbm.xml";
+        return entityClass.getClassLoader().getResource(resource) != null ? resource : null;
+    }
+
+    /**
+     * Acquires the shared SessionFactory and connection pool, building them on first use.
+     * Every call must be paired with {@link #close()}, usually from the pattern registration lifecycle.
+     */
+    public static synchronized void open() {
+        references++;
+        build();
+    }
+
+    /**
+     * Releases the shared SessionFactory and connection pool, tearing them down once the last user is gone.
+     */
+    public static synchronized void close() {
+        if (references > 0 && --references == 0) {
+            if (sessionFactory != null) sessionFactory.close();
+            if (dataSource != null) dataSource.close();
+            JdbcUpsert.clear();
+            entityClasses.clear();
+            sessionFactory = null;
+            dataSource = null;
+        }
+    }
+
+    public static synchronized PoolMetrics getPoolMetrics() {
+        return poolMetrics;
+    }
+
+    static synchronized HikariDataSource getDataSource() {
+        getSessionFactory();
+        return dataSource;
+    }
+
+    /**
+     * The shared SessionFactory, while at least one user holds it open. Users that opened it while the database
+     * was unavailable get it built here, still released by their {@link #close()}; a call after the last close,
+     * as a worker finishing late, fails instead of building a pool nobody would close.
+     */
+    static synchronized SessionFactory getSessionFactory() {
+        if (references == 0) throw new IllegalStateException("HibernateUtils is closed: open() it before use");
+        build();
+        return sessionFactory;
     }
+
+    private static void build() {
+        if (sessionFactory == null) {
+            Configuration configuration = new Configuration();
+            configuration.configure("hibernate.cfg.xml");
+            for (Class<?> entityClass : entityClasses) {
+                String resource = mappingResource(entityClass);
+                if (resource != null) configuration.addResource(resource);
+                else configuration.addAnnotatedClass(entityClass);
+            }
+            poolMetrics = new PoolMetrics();
+            dataSource = createDataSource(configuration.getProperties(), poolMetrics);
+            // The pool owns the connection settings: left in place, Hibernate would ask it for per-user connections.
+            // configure() copied every setting into the properties, which are re-applied when the factory is built.
+            configuration.getStandardServiceRegistryBuilder().clearSettings();
+            for (String setting : new String[]{AvailableSettings.URL, AvailableSettings.USER, AvailableSettings.PASS, AvailableSettings.DRIVER}) {
+                configuration.getProperties().remove(setting);
+            }
+            configuration.getProperties().put(AvailableSettings.DATASOURCE, dataSource);
+            try {
+                sessionFactory = configuration.buildSessionFactory();
+            } catch (RuntimeException e) {
+                dataSource.close();
+                dataSource = null;
+                throw e;
+            }
+        }
+    }
+
+    private static HikariDataSource createDataSource(Properties properties, PoolMetrics metrics) {
+        Properties hikari = new Properties();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(HIKARI_PREFIX)) {
+                hikari.setProperty(name.substring(HIKARI_PREFIX.length()), properties.getProperty(name));
+            }
+        }
+        HikariConfig config = new HikariConfig(hikari);
+        config.setJdbcUrl(properties.getProperty(AvailableSettings.URL));
+        config.setUsername(properties.getProperty(AvailableSettings.USER));
+        config.setPassword(properties.getProperty(AvailableSettings.PASS));
+        config.setDriverClassName(properties.getProperty(AvailableSettings.DRIVER));
+        config.setMetricsTrackerFactory(metrics);
+        return new HikariDataSource(config);
+    }
+
     public static Object find(Class entityClass, Object entityId) {
-        return getSession().find(entityClass, entityId);
+        try (Session session = getSessionFactory().openSession()) {
+            return session.find(entityClass, entityId);
+        }
+    }
+
+    /**
+     * Loads all the entities with a single IN query; the result is in the same order as the ids, with null for missing ones.
+     */
+    public static <T> List<T> findAll(Class<T> entityClass, List<?> entityIds) {
+        try (Session session = getSessionFactory().openSession()) {
+            return session.byMultipleIds(entityClass).withBatchSize(entityIds.size()).multiLoad(entityIds);
+        }
+    }
+
+    /**
+     * Returns the lowest and highest id of the entity, or null when there are none.
+     * With newest greater than zero, the lowest id is the one of the newest highest ids.
+     */
+    public static Object[] idRange(Class<?> entityClass, int newest) {
+        String idName = EntityCodec.of(entityClass).getIdName();
+        try (StatelessSession session = getSessionFactory().openStatelessSession()) {
+            Object[] range = session.createQuery("select min(e." + idName + "), max(e." + idName + ") from "
+                    + entityClass.getName() + " e", Object[].class).getSingleResult();
+            if (range[0] == null) return null;
+            if (newest > 0) {
+                List<Object> ids = session.createQuery("select e." + idName + " from " + entityClass.getName()
+                                + " e order by e." + idName + " desc", Object.class)
+                        .setFirstResult(newest - 1).setMaxResults(1).getResultList();
+                if (!ids.isEmpty()) range[0] = ids.get(0);
+            }
+            return range;
+        }
+    }
+
+    /**
+     * Loads, in id order, up to limit entities whose id is between the given bounds, or all of them when the bounds
+     * are null; with fromInclusive false the lower bound is excluded, so that the next page starts after the last id.
+     */
+    public static <T> List<T> page(Class<T> entityClass, Object fromId, Object toId, boolean fromInclusive, int limit) {
+        String idName = EntityCodec.of(entityClass).getIdName();
+        String hql = "from " + entityClass.getName() + " e"
+                + (fromId != null ? " where e." + idName + (fromInclusive ? " >= " : " > ") + ":from and e." + idName + " <= :to" : "")
+                + " order by e." + idName;
+        try (StatelessSession session = getSessionFactory().openStatelessSession()) {
+            Query<T> query = session.createQuery(hql, entityClass).setMaxResults(limit);
+            if (fromId != null) query.setParameter("from", fromId).setParameter("to", toId);
+            return query.getResultList();
+        }
+    }
+
+    /**
+     * Updates only the given properties of the entity's row; returns false when the row does not exist.
+     */
+    public static boolean update(Object entity, String[] properties) {
+        StringBuilder hql = new StringBuilder("update ").append(entity.getClass().getName()).append(" set ");
+        for (int i = 0; i < properties.length; i++) {
+            hql.append(i > 0 ? ", " : "").append(properties[i]).append(" = :").append(properties[i]);
+        }
+        @SuppressWarnings("unchecked")
+        EntityCodec<Object> codec = (EntityCodec<Object>) EntityCodec.of(entity.getClass());
+        String idName = codec.getIdName();
+        hql.append(" where ").append(idName).append(" = :").append(idName);
+        try (Session session = getSessionFactory().openSession()) {
+            session.beginTransaction();
+            try {
+                EntityPersister persister = getSessionFactory().unwrap(SessionFactoryImplementor.class)
+                        .getMappingMetamodel().getEntityDescriptor(entity.getClass());
+                MutationQuery query = session.createMutationQuery(hql.toString());
+                for (String property : properties) {
+                    query.setParameter(property, persister.getPropertyValue(entity, property));
+                }
+                query.setParameter(idName, codec.getId(entity));
+                int updated = query.executeUpdate();
+                session.getTransaction().commit();
+                return updated > 0;
+            } catch (RuntimeException e) {
+                session.getTransaction().rollback();
+                throw e;
+            }
+        }
     }
 
     public static void saveOrUpdate(Object entity) {
-        Session session = getSession();
-        session.beginTransaction();
-        session.saveOrUpdate(entity);
-        session.getTransaction().commit();
-        session.close();
+        try (Session session = getSessionFactory().openSession()) {
+            session.beginTransaction();
+            try {
+                session.saveOrUpdate(entity);
+                session.getTransaction().commit();
+            } catch (RuntimeException e) {
+                session.getTransaction().rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Saves all the entities in a single transaction, letting Hibernate group the statements in JDBC batches.
+     */
+    public static void saveOrUpdateAll(Collection<?> entities) {
+        try (Session session = getSessionFactory().openSession()) {
+            session.beginTransaction();
+            try {
+                for (Object entity : entities) {
+                    session.saveOrUpdate(entity);
+                }
+                session.getTransaction().commit();
+            } catch (RuntimeException e) {
+                session.getTransaction().rollback();
+                throw e;
+            }
+        }
     }
 }
@@ -0,0 +1,146 @@
+package com.foogaro.data.jpa;
+
+import com.foogaro.data.cache.codec.EntityCodec;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persists entities with a single MySQL {@code INSERT ... ON DUPLICATE KEY UPDATE} per row, instead of the
+ * SELECT followed by INSERT or UPDATE that Hibernate's saveOrUpdate needs with assigned ids.
+ * The statement is derived once per entity type from the Hibernate mapping, and runs on the shared connection pool,
+ * whose driver caches the prepared statements.
+ */
+public class JdbcUpsert {
+
+    private static final Map<Class<?>, JdbcUpsert> UPSERTS = new ConcurrentHashMap<>();
+
+    private final String sql;
+    private final AbstractEntityPersister persister;
+    private final EntityCodec<Object> codec;
+    private final Map<String, String> updates = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    private JdbcUpsert(Class<?> entityClass, SessionFactoryImplementor sessionFactory) {
+        this.persister = (AbstractEntityPersister) sessionFactory.getMappingMetamodel().getEntityDescriptor(entityClass);
+        this.codec = (EntityCodec<Object>) EntityCodec.of(entityClass);
+        List<String> columns = new ArrayList<>();
+        Collections.addAll(columns, persister.getIdentifierColumnNames());
+        int idColumns = columns.size();
+        for (String property : persister.getPropertyNames()) {
+            Collections.addAll(columns, persister.getPropertyColumnNames(property));
+        }
+        StringBuilder insert = new StringBuilder("INSERT INTO ").append(persister.getRootTableName()).append(" (");
+        StringBuilder values = new StringBuilder(") VALUES (");
+        StringBuilder update = new StringBuilder(") ON DUPLICATE KEY UPDATE ");
+        for (int i = 0; i < columns.size(); i++) {
+            String column = columns.get(i);
+            insert.append(i > 0 ? ", " : "").append(column);
+            values.append(i > 0 ? ", ?" : "?");
+            if (i >= idColumns) {
+                update.append(i > idColumns ? ", " : "").append(column).append(" = VALUES(").append(column).append(")");
+            }
+        }
+        this.sql = insert.append(values).append(update).toString();
+    }
+
+    static JdbcUpsert of(Class<?> entityClass) {
+        return UPSERTS.computeIfAbsent(entityClass, type -> new JdbcUpsert(type, HibernateUtils.getSessionFactory().unwrap(SessionFactoryImplementor.class)));
+    }
+
+    static void clear() {
+        UPSERTS.clear();
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    private void bind(PreparedStatement statement, Object entity) throws SQLException {
+        int index = 1;
+        statement.setObject(index++, codec.getId(entity));
+        for (Object value : persister.getPropertyValues(entity)) {
+            statement.setObject(index++, value);
+        }
+    }
+
+    private String updateSql(String[] properties) {
+        return updates.computeIfAbsent(String.join(",", properties), k -> {
+            StringBuilder update = new StringBuilder("UPDATE ").append(persister.getRootTableName()).append(" SET ");
+            int columns = 0;
+            for (String property : properties) {
+                for (String column : persister.getPropertyColumnNames(property)) {
+                    update.append(columns++ > 0 ? ", " : "").append(column).append(" = ?");
+                }
+            }
+            update.append(" WHERE ");
+            String[] idColumns = persister.getIdentifierColumnNames();
+            for (int i = 0; i < idColumns.length; i++) {
+                update.append(i > 0 ? " AND " : "").append(idColumns[i]).append(" = ?");
+            }
+            return update.toString();
+        });
+    }
+
+    /**
+     * Updates only the given properties of the entity's row; returns false when the row does not exist.
+     */
+    public static boolean update(Object entity, String[] properties) {
+        JdbcUpsert upsert = of(entity.getClass());
+        try (Connection connection = HibernateUtils.getDataSource().getConnection();
+             PreparedStatement statement = connection.prepareStatement(upsert.updateSql(properties))) {
+            int index = 1;
+            for (String property : properties) {
+                statement.setObject(index++, upsert.persister.getPropertyValue(entity, property));
+            }
+            statement.setObject(index, upsert.codec.getId(entity));
+            return statement.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Update of " + String.join(", ", properties) + " failed", e);
+        }
+    }
+
+    public static void upsert(Object entity) {
+        upsertAll(Collections.singletonList(entity));
+    }
+
+    /**
+     * Upserts all the entities in one transaction, as a single JDBC batch per entity type.
+     */
+    public static void upsertAll(Collection<?> entities) {
+        if (entities.isEmpty()) return;
+        try (Connection connection = HibernateUtils.getDataSource().getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                Map<Class<?>, List<Object>> byType = new LinkedHashMap<>();
+                for (Object entity : entities) byType.computeIfAbsent(entity.getClass(), k -> new ArrayList<>()).add(entity);
+                for (Map.Entry<Class<?>, List<Object>> entry : byType.entrySet()) {
+                    JdbcUpsert upsert = of(entry.getKey());
+                    try (PreparedStatement statement = connection.prepareStatement(upsert.sql)) {
+                        for (Object entity : entry.getValue()) {
+                            upsert.bind(statement, entity);
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                    }
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Upsert of " + entities.size() + " entities failed", e);
+        }
+    }
+}
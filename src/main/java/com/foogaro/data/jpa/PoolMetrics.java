@@ -0,0 +1,61 @@
+package com.foogaro.data.jpa;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class PoolMetrics implements MetricsTrackerFactory, IMetricsTracker {
+
+    private volatile PoolStats poolStats;
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder timeouts = new LongAdder();
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+        return this;
+    }
+
+    @Override
+    public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+        acquired.increment();
+        waitNanos.add(elapsedAcquiredNanos);
+        maxWaitNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+    }
+
+    @Override
+    public void recordConnectionTimeout() {
+        timeouts.increment();
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> metrics = new LinkedHashMap<>();
+        PoolStats stats = poolStats;
+        if (stats != null) {
+            metrics.put("active", String.valueOf(stats.getActiveConnections()));
+            metrics.put("idle", String.valueOf(stats.getIdleConnections()));
+            metrics.put("total", String.valueOf(stats.getTotalConnections()));
+            metrics.put("pending", String.valueOf(stats.getPendingThreads()));
+            metrics.put("max", String.valueOf(stats.getMaxConnections()));
+        }
+        long count = acquired.sum();
+        metrics.put("acquired", String.valueOf(count));
+        metrics.put("timeouts", String.valueOf(timeouts.sum()));
+        metrics.put("waitAvgMicros", String.valueOf(count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(waitNanos.sum() / count)));
+        metrics.put("waitMaxMicros", String.valueOf(TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get())));
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolMetrics" + toMap();
+    }
+}
@@ -0,0 +1,197 @@
+package com.foogaro.data.cache;
+
+import com.foogaro.data.cache.fake.Await;
+import com.foogaro.data.cache.fake.EmbeddedDatabase;
+import com.foogaro.data.cache.fake.FakeGears;
+import com.foogaro.data.cache.cdc.CdcEvent;
+import com.foogaro.data.cache.patterns.ReadThrough;
+import com.foogaro.data.entities.Person;
+import gears.GearsBuilder;
+import gears.records.KeysReaderRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PatternsTest {
+
+    private final FakeGears gears = FakeGears.get();
+
+    static class AsyncReadThrough extends ReadThrough {
+
+        AsyncReadThrough() {
+            super(Person.class);
+        }
+
+        @Override
+        public boolean isAsync() {
+            return true;
+        }
+    }
+
+    static class SlowReadThrough extends AsyncReadThrough {
+
+        @Override
+        public long getAsyncTimeoutMillis() {
+            return 50;
+        }
+
+        @Override
+        protected Object load(String key) throws Exception {
+            Thread.sleep(500);
+            return super.load(key);
+        }
+
+        @Override
+        protected void onFallback(KeysReaderRecord record) {
+            GearsBuilder.executeArray(new String[]{"SET", "fallback:" + record.getKey(), "1"});
+        }
+    }
+
+    static class SelectiveReadThrough extends ReadThrough {
+
+        SelectiveReadThrough() {
+            super(Person.class);
+        }
+
+        @Override
+        public int getAdmissionThreshold() {
+            return 2;
+        }
+    }
+
+    @AfterEach
+    void reset() throws Exception {
+        gears.reset();
+        EmbeddedDatabase.clear();
+    }
+
+    @Test
+    void asyncReadThroughRepliesOnceLoaded() throws Exception {
+        RGManager.register(new AsyncReadThrough());
+        EmbeddedDatabase.insertPeople(1, 3);
+        assertEquals("First2", gears.call("HGET", "person:2", "firstname"));
+        assertArrayEquals(new Object[]{"First1", "Last1"}, (Object[]) gears.call("HMGET", "person:1", "firstname", "lastname"));
+        assertEquals(0, gears.getFailures());
+    }
+
+    @Test
+    void asyncFallbackRunsHoldingTheGil() throws Exception {
+        RGManager.register(new SlowReadThrough());
+        EmbeddedDatabase.insertPeople(1, 3);
+        assertNull(gears.call("HGET", "person:2", "firstname"));
+        assertEquals("1", gears.call("GET", "fallback:person:2"));
+        assertEquals(0, gears.getFailures());
+    }
+
+    @Test
+    void readThroughCachesOnlyKeysMissedOftenEnough() throws Exception {
+        RGManager.register(new SelectiveReadThrough());
+        EmbeddedDatabase.insertPeople(1, 3);
+        assertEquals("First2", gears.call("HGET", "person:2", "firstname"));
+        assertEquals(0L, gears.call("EXISTS", "person:2"));
+        assertEquals("First2", gears.call("HGET", "person:2", "firstname"));
+        assertEquals(1L, gears.call("EXISTS", "person:2"));
+        assertEquals(0, gears.getFailures());
+    }
+
+    @Test
+    void writeBehindDrainsClientWrites() throws Exception {
+        new PersonWriteBehind();
+        gears.call("HSET", "developer:7", "id", "7", "firstname", "Linus", "lastname", "Torvalds", "age", "54");
+        Await.until("the write-behind drain", 10_000, () -> "Linus".equals(EmbeddedDatabase.firstname(7)));
+    }
+
+    @Test
+    void readReplicaAppliesChangeEvents() throws Exception {
+        new PersonReadReplica();
+        gears.call("XADD", "vdt.vdt.person", "*", "{\"id\":5}", "{\"before\":null,"
+                + "\"after\":{\"id\":5,\"firstname\":\"Ada\",\"lastname\":\"Lovelace\",\"age\":36},"
+                + "\"source\":{\"file\":\"binlog.000001\",\"pos\":120,\"row\":0},\"op\":\"c\",\"ts_ms\":1}");
+        Await.until("the change to be applied", 10_000, () -> "Ada".equals(gears.call("HGET", "person:5", "firstname")));
+
+        // an older position is skipped
+        gears.call("XADD", "vdt.vdt.person", "*", "{\"id\":5}", "{\"before\":null,"
+                + "\"after\":{\"id\":5,\"firstname\":\"Old\",\"lastname\":\"Lovelace\",\"age\":36},"
+                + "\"source\":{\"file\":\"binlog.000001\",\"pos\":80,\"row\":0},\"op\":\"u\",\"ts_ms\":1}");
+        gears.awaitIdle(10_000);
+        assertEquals("Ada", gears.call("HGET", "person:5", "firstname"));
+    }
+
+    @Test
+    void readReplicaKeepsDeletedEntitiesDeleted() throws Exception {
+        new PersonReadReplica();
+        gears.call("XADD", "vdt.vdt.person", "*", "{\"id\":5}", change(5, "Ada", 120, "c"));
+        gears.call("XADD", "vdt.vdt.person", "*", "{\"id\":5}", "{\"before\":{\"id\":5},\"after\":null,"
+                + "\"source\":{\"file\":\"binlog.000001\",\"pos\":160,\"row\":0},\"op\":\"d\",\"ts_ms\":1}");
+        Await.until("the delete to be applied", 10_000, () -> Long.valueOf(1).equals(gears.call("EXISTS", "tombstone:{person:5}")));
+        assertEquals(0L, gears.call("EXISTS", "person:5"));
+
+        // an upsert older than the delete, arriving late, does not bring the entity back
+        gears.call("XADD", "vdt.vdt.person", "*", "{\"id\":5}", change(5, "Old", 140, "u"));
+        gears.awaitIdle(10_000);
+        assertEquals(0L, gears.call("EXISTS", "person:5"));
+
+        // a newer one does, and clears the tombstone
+        gears.call("XADD", "vdt.vdt.person", "*", "{\"id\":5}", change(5, "Back", 200, "c"));
+        Await.until("the change to be applied", 10_000, () -> "Back".equals(gears.call("HGET", "person:5", "firstname")));
+        assertEquals(0L, gears.call("EXISTS", "tombstone:{person:5}"));
+    }
+
+    static class FlakyReadReplica extends PersonReadReplica {
+
+        static final AtomicInteger failures = new AtomicInteger();
+
+        @Override
+        public int getApplyAttempts() {
+            return 3;
+        }
+
+        @Override
+        public long getApplyRetryBackoffMillis() {
+            return 10;
+        }
+
+        @Override
+        protected boolean apply(CdcEvent event) {
+            if (failures.getAndDecrement() > 0) throw new IllegalStateException("unavailable");
+            return super.apply(event);
+        }
+    }
+
+    @Test
+    void readReplicaRetriesChangesThatFailedToApply() throws Exception {
+        FlakyReadReplica.failures.set(2);
+        FlakyReadReplica replica = new FlakyReadReplica();
+        gears.call("XADD", "vdt.vdt.person", "*", "{\"id\":5}", change(5, "Ada", 120, "c"));
+        Await.until("the change to be applied", 10_000, () -> "Ada".equals(gears.call("HGET", "person:5", "firstname")));
+        assertEquals(0L, gears.call("XLEN", "deadletter:{vdt.vdt.person}:" + replica.getName()));
+    }
+
+    @Test
+    void readReplicaDeadLettersChangesThatKeepFailing() throws Exception {
+        FlakyReadReplica.failures.set(Integer.MAX_VALUE);
+        FlakyReadReplica replica = new FlakyReadReplica();
+        String id = (String) gears.call("XADD", "vdt.vdt.person", "*", "{\"id\":5}", change(5, "Ada", 120, "c"));
+        String deadLetters = "deadletter:{vdt.vdt.person}:" + replica.getName();
+        Await.until("the change to be dead-lettered", 10_000, () -> Long.valueOf(1).equals(gears.call("XLEN", deadLetters)));
+        Await.until("the checkpoint", 10_000, () -> id.equals(gears.call("GET", "checkpoint:{vdt.vdt.person}:" + replica.getName())));
+
+        Object[] entry = (Object[]) ((Object[]) gears.call("XRANGE", deadLetters, "-", "+"))[0];
+        Object[] fields = (Object[]) entry[1];
+        assertEquals(id, fields[1]);
+        assertEquals("unavailable", fields[3]);
+        assertTrue(fields[5].toString().contains("\"Ada\""));
+        assertEquals(0L, gears.call("EXISTS", "person:5"));
+    }
+
+    private static String change(int id, String firstname, int pos, String op) {
+        return "{\"before\":null,\"after\":{\"id\":" + id + ",\"firstname\":\"" + firstname + "\",\"lastname\":\"Lovelace\",\"age\":36},"
+                + "\"source\":{\"file\":\"binlog.000001\",\"pos\":" + pos + ",\"row\":0},\"op\":\"" + op + "\",\"ts_ms\":1}";
+    }
+}
@@ -0,0 +1,148 @@
+package com.foogaro.data.cache;
+
+import com.foogaro.data.cache.fake.Await;
+import com.foogaro.data.cache.fake.EmbeddedDatabase;
+import com.foogaro.data.cache.fake.FakeGears;
+import com.foogaro.data.cache.patterns.CachingPattern;
+import com.foogaro.data.cache.patterns.NegativeCache;
+import com.foogaro.data.entities.Person;
+import com.foogaro.data.entities.ShortLivedPerson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RGManagerTest {
+
+    private final FakeGears gears = FakeGears.get();
+
+    @Cached(patterns = CachingPattern.READ_THROUGH)
+    static class Unmapped {
+        Long id;
+    }
+
+    @BeforeEach
+    void register() throws Exception {
+        RGManager.register(Person.class, ShortLivedPerson.class);
+        EmbeddedDatabase.insertPeople(1, 10);
+    }
+
+    @AfterEach
+    void reset() throws Exception {
+        gears.reset();
+        EmbeddedDatabase.clear();
+    }
+
+    @Test
+    void readThroughLoadsMissedEntities() {
+        assertEquals("First3", gears.call("HGET", "person:3", "firstname"));
+        assertEquals(1L, gears.call("EXISTS", "person:3"));
+        assertArrayEquals(new Object[]{"Last3", "13"}, (Object[]) gears.call("HMGET", "person:3", "lastname", "age"));
+        assertEquals(0, gears.getFailures());
+    }
+
+    @Test
+    void readThroughServesHitsFromTheCache() throws Exception {
+        gears.call("HGET", "person:3", "firstname");
+        EmbeddedDatabase.execute("UPDATE person SET firstname = 'Changed' WHERE id = 3");
+        gears.call("HSET", "person:3", "lastname", "Unflushed");
+
+        // neither reloaded from the database nor rewritten: the cache answers
+        assertEquals("First3", gears.call("HGET", "person:3", "firstname"));
+        assertArrayEquals(new Object[]{"First3", "Unflushed"}, (Object[]) gears.call("HMGET", "person:3", "firstname", "lastname"));
+        assertEquals(0, gears.getFailures());
+    }
+
+    @Test
+    void readThroughCachesEntitiesWithJitteredTtl() {
+        gears.call("HGET", "person:4", "firstname");
+        long ttl = (Long) gears.call("TTL", "person:4");
+        assertEquals(true, ttl >= 2880 && ttl <= 4320, "TTL " + ttl);
+    }
+
+    @Test
+    void readThroughRepliesNilForMissingEntities() {
+        assertNull(gears.call("HGET", "person:42", "firstname"));
+        assertEquals(0L, gears.call("EXISTS", "person:42"));
+        assertTrue(underGil(() -> NegativeCache.contains("person:42")));
+    }
+
+    @Test
+    void writeThroughPersistsClientWrites() throws Exception {
+        gears.call("HSET", "person:20", "id", "20", "firstname", "Grace", "lastname", "Hopper", "age", "85");
+        assertEquals("Grace", EmbeddedDatabase.firstname(20));
+        gears.call("HSET", "person:20", "firstname", "Amazing Grace");
+        assertEquals("Amazing Grace", EmbeddedDatabase.firstname(20));
+    }
+
+    @Test
+    void compactEntitiesAreServedByTheEntityTrigger() {
+        assertEquals(Arrays.asList("First3", "13"), gears.trigger("ENTITY", "HMGET", "shortlived:3", "firstname", "age"));
+        assertEquals("string", gears.call("TYPE", "shortlived:3"));
+        assertEquals(2L, gears.trigger("ENTITY", "HSET", "shortlived:3", "firstname", "Compact", "age", "31"));
+        assertEquals(Arrays.asList("Compact", "31", "Last3"), gears.trigger("ENTITY", "HMGET", "shortlived:3", "firstname", "age", "lastname"));
+        assertTrue((Long) gears.call("PTTL", "shortlived:3") > 0);
+        assertEquals(0, gears.getFailures());
+    }
+
+    @Test
+    void refreshAheadRefreshesKeysFilledByReadThrough() throws Exception {
+        assertNotNull(gears.call("GET", "shortlived:5"));
+        EmbeddedDatabase.execute("UPDATE person SET firstname = 'Refreshed' WHERE id = 5");
+        Thread.sleep(1200);
+        gears.call("GET", "shortlived:5");
+
+        // read after 60% of its 2 seconds: reloaded at 80%, before it expires
+        Await.until("the refresh", 1500, () -> String.valueOf(peek("shortlived:5")).contains("Refreshed"));
+        assertTrue((Long) gears.call("PTTL", "shortlived:5") > 1000);
+    }
+
+    @Test
+    void keysOfNoEntityDoNotReachThePatterns() throws Exception {
+        gears.call("HSET", "unrelated:1", "id", "1");
+        gears.call("HGET", "unrelated:1", "id");
+        gears.call("EXPIRE", "unrelated:1", "100");
+        gears.call("GET", "unrelated:2");
+        assertTrue(gears.awaitIdle(5000));
+        for (String registration : gears.getRegistrations()) assertTrue(registration.endsWith("triggered=0 failures=0"), registration);
+    }
+
+    @Test
+    void entitiesWithoutHibernateMappingAreRejected() {
+        int registrations = gears.getRegistrations().size();
+        assertThrows(IllegalArgumentException.class, () -> RGManager.register(Unmapped.class));
+        assertEquals(registrations, gears.getRegistrations().size());
+    }
+
+    /**
+     * The value at the key, read without firing a key miss that would load it.
+     */
+    private Object peek(String key) {
+        return underGil(() -> {
+            boolean avoidNotifications = gears.setAvoidNotifications(true);
+            try {
+                return gears.executeArray(new String[]{"GET", key});
+            } finally {
+                gears.setAvoidNotifications(avoidNotifications);
+            }
+        });
+    }
+
+    private <T> T underGil(Supplier<T> call) {
+        gears.acquireRedisGil();
+        try {
+            return call.get();
+        } finally {
+            gears.releaseRedisGil();
+        }
+    }
+}
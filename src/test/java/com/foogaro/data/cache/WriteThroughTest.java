@@ -0,0 +1,89 @@
+package com.foogaro.data.cache;
+
+import com.foogaro.data.cache.fake.Await;
+import com.foogaro.data.cache.fake.EmbeddedDatabase;
+import com.foogaro.data.cache.fake.FakeGears;
+import com.foogaro.data.cache.patterns.WriteBehindJournal;
+import com.foogaro.data.cache.patterns.WriteThrough;
+import com.foogaro.data.entities.Person;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WriteThroughTest {
+
+    private final FakeGears gears = FakeGears.get();
+
+    static class FragileWriteThrough extends WriteThrough {
+
+        FragileWriteThrough() {
+            super(Person.class);
+        }
+
+        @Override
+        public int getBreakerMinimumCalls() {
+            return 2;
+        }
+
+        @Override
+        public long getBreakerOpenMillis() {
+            return 200;
+        }
+
+        @Override
+        public int getBreakerHalfOpenProbes() {
+            return 1;
+        }
+    }
+
+    @AfterEach
+    void reset() throws Exception {
+        gears.reset();
+        EmbeddedDatabase.execute("ALTER TABLE IF EXISTS person_away RENAME TO person");
+        EmbeddedDatabase.clear();
+    }
+
+    @Test
+    void writesRefusedByAnOpenBreakerArePersistedOnceItCloses() throws Exception {
+        RGManager.register(new FragileWriteThrough());
+        EmbeddedDatabase.execute("ALTER TABLE person RENAME TO person_away");
+        gears.call("HSET", "person:30", "id", "30", "firstname", "Failing", "lastname", "Write", "age", "30");
+        gears.call("HSET", "person:30", "firstname", "Failing again");
+
+        // the breaker is open: the writes are deferred, in order
+        gears.call("HSET", "person:31", "id", "31", "firstname", "Deferred", "lastname", "Write", "age", "31");
+        gears.call("HSET", "person:31", "firstname", "Deferred again");
+        EmbeddedDatabase.execute("ALTER TABLE person_away RENAME TO person");
+        Await.until("the deferred writes", 10_000, () -> "Deferred again".equals(EmbeddedDatabase.firstname(31)));
+
+        // and the writes that follow are persisted inline again
+        Await.until("the journal to be empty", 10_000, () -> Long.valueOf(0).equals(gears.call("XLEN", WriteBehindJournal.streamOf("FragileWriteThrough.person"))));
+        gears.call("HSET", "person:31", "firstname", "Inline");
+        assertEquals("Inline", EmbeddedDatabase.firstname(31));
+    }
+
+    @Test
+    void writesThatChangeNothingAreNotPersistedAgain() throws Exception {
+        RGManager.register(Person.class);
+        gears.call("HSET", "person:40", "id", "40", "firstname", "Ada", "lastname", "Lovelace", "age", "36");
+        EmbeddedDatabase.execute("UPDATE person SET firstname = 'Changed' WHERE id = 40");
+
+        // the hash is the one last persisted: nothing to write
+        gears.call("HSET", "person:40", "firstname", "Ada");
+        assertEquals("Changed", EmbeddedDatabase.firstname(40));
+    }
+
+    @Test
+    void writesAfterTheCacheIsReloadedArePersisted() throws Exception {
+        RGManager.register(Person.class);
+        gears.call("HSET", "person:40", "id", "40", "firstname", "Ada", "lastname", "Lovelace", "age", "36");
+        EmbeddedDatabase.execute("UPDATE person SET firstname = 'Changed' WHERE id = 40");
+        gears.call("DEL", "person:40");
+        assertEquals("Changed", gears.call("HGET", "person:40", "firstname"));
+
+        // the reload forgot what was persisted, so writing the old value back is not skipped
+        gears.call("HSET", "person:40", "firstname", "Ada");
+        assertEquals("Ada", EmbeddedDatabase.firstname(40));
+    }
+}
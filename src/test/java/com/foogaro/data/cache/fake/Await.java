@@ -0,0 +1,20 @@
+package com.foogaro.data.cache.fake;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Waits for what the patterns do on their own threads, such as write-behind drains and CDC consumers.
+ */
+public final class Await {
+
+    private Await() {
+    }
+
+    public static void until(String what, long timeoutMillis, Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!Boolean.TRUE.equals(condition.call())) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("Timed out waiting for " + what);
+            Thread.sleep(5);
+        }
+    }
+}
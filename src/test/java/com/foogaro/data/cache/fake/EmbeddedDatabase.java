@@ -0,0 +1,66 @@
+package com.foogaro.data.cache.fake;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The embedded H2 database the test {@code hibernate.cfg.xml} points the patterns to, for seeding and checking the
+ * {@code person} table. The table is created by the first pattern registered, through Hibernate.
+ */
+public final class EmbeddedDatabase {
+
+    public static final String URL = "jdbc:h2:mem:vdt;MODE=MySQL;DB_CLOSE_DELAY=-1";
+
+    private EmbeddedDatabase() {
+    }
+
+    public static Connection connect() throws SQLException {
+        return DriverManager.getConnection(URL, "root", "root");
+    }
+
+    public static void insertPeople(long fromId, long toId) throws SQLException {
+        try (Connection connection = connect();
+             PreparedStatement insert = connection.prepareStatement("INSERT INTO person (id, firstname, lastname, age) VALUES (?, ?, ?, ?)")) {
+            connection.setAutoCommit(false);
+            for (long id = fromId; id <= toId; id++) {
+                insert.setLong(1, id);
+                insert.setString(2, "First" + id);
+                insert.setString(3, "Last" + id);
+                insert.setInt(4, (int) (id % 90) + 10);
+                insert.addBatch();
+                if (id % 1000 == 0) insert.executeBatch();
+            }
+            insert.executeBatch();
+            connection.commit();
+        }
+    }
+
+    /**
+     * The first name of the person, or null if there is no such row.
+     */
+    public static String firstname(long id) throws SQLException {
+        try (Connection connection = connect();
+             PreparedStatement select = connection.prepareStatement("SELECT firstname FROM person WHERE id = ?")) {
+            select.setLong(1, id);
+            try (ResultSet rows = select.executeQuery()) {
+                return rows.next() ? rows.getString(1) : null;
+            }
+        }
+    }
+
+    public static void execute(String sql) throws SQLException {
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    public static void clear() throws SQLException {
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.execute("DELETE FROM person");
+        }
+    }
+}
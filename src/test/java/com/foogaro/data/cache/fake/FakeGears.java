@@ -0,0 +1,651 @@
+package com.foogaro.data.cache.fake;
+
+import gears.ExecutionMode;
+import gears.GearsFuture;
+import gears.LogLevel;
+import gears.operations.AsyncForeachOperation;
+import gears.operations.FilterOperation;
+import gears.operations.ForeachOperation;
+import gears.operations.GearsFutureOnDone;
+import gears.operations.MapOperation;
+import gears.operations.OnRegisteredOperation;
+import gears.operations.OnUnregisteredOperation;
+import gears.readers.BaseReader;
+import gears.readers.CommandReader;
+import gears.readers.KeysReader;
+import gears.records.KeysReaderRecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An in-process stand-in for the RedisGears runtime the patterns are registered on, behind the test copy of
+ * {@code gears.GearsBuilder}, over a {@link FakeRedis} keyspace:
+ * <ul>
+ * <li>the GIL is a reentrant lock, held by clients while their command runs; {@code executeArray} fails
+ * without it, as it would crash Redis;</li>
+ * <li>{@code KeysReader} registrations get the keyspace notifications matching their pattern and event types,
+ * unless the writing thread avoids notifications, or hook the commands they list, before they run;</li>
+ * <li>SYNC registrations run on the thread firing the event, holding the GIL; ASYNC and ASYNC_LOCAL ones on
+ * execution threads without it;</li>
+ * <li>a client whose SYNC registration returns an unresolved future is suspended, the GIL released, until it
+ * resolves; it then gets the reply overridden by the registration, if any, otherwise the command's own;</li>
+ * <li>operations and callbacks are serialized and deserialized at registration, as RedisGears does.</li>
+ * </ul>
+ * Clients call {@link #call(String...)} and {@link #trigger(String, String...)}, from any number of threads.
+ */
+public final class FakeGears {
+
+    private static final FakeGears INSTANCE = new FakeGears();
+
+    public static FakeGears get() {
+        return INSTANCE;
+    }
+
+    private static final class Reply {
+        private final Object value;
+
+        private Reply(Object value) {
+            this.value = value;
+        }
+    }
+
+    private static final class Call {
+        private final byte[][] command;
+        private final List<Suspension> suspensions = new ArrayList<>();
+        private Reply reply;
+
+        private Call(String[] command) {
+            this.command = new byte[command.length][];
+            for (int i = 0; i < command.length; i++) this.command[i] = command[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A future returned by an async operation, tracked until it resolves.
+     */
+    private final class Suspension implements GearsFutureOnDone<Serializable> {
+        private final GearsFuture<Serializable> future;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile String error;
+
+        private Suspension(GearsFuture<Serializable> future) throws Exception {
+            this.future = future;
+            inFlight.incrementAndGet();
+            future.setFutureCallbacks(this);
+        }
+
+        @Override
+        public void OnDone(Serializable result) {
+            resolved();
+        }
+
+        @Override
+        public void OnFailed(String error) {
+            this.error = error;
+            resolved();
+        }
+
+        private void resolved() {
+            done.countDown();
+            idle();
+        }
+
+        private Reply await() throws InterruptedException {
+            if (!done.await(futureTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Future not resolved within " + futureTimeoutMillis + "ms");
+            }
+            if (error != null) throw new RuntimeException(error);
+            return completedReplies.remove(future);
+        }
+    }
+
+    private static final class Registration {
+        private final String id;
+        private final BaseReader<?> reader;
+        private final ExecutionMode mode;
+        private final List<Serializable> operations;
+        private final OnUnregisteredOperation onUnregistered;
+        private final java.util.regex.Pattern keyPattern;
+        private final Set<String> eventTypes;
+        private final Set<String> commands;
+        private final AtomicLong triggered = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+
+        private Registration(String id, BaseReader<?> reader, ExecutionMode mode, List<Serializable> operations,
+                             OnUnregisteredOperation onUnregistered) {
+            this.id = id;
+            this.reader = reader;
+            this.mode = mode;
+            this.operations = operations;
+            this.onUnregistered = onUnregistered;
+            if (reader instanceof KeysReader) {
+                KeysReader keysReader = (KeysReader) reader;
+                this.keyPattern = FakeRedis.glob(keysReader.getPattern() != null ? keysReader.getPattern() : "*");
+                this.eventTypes = keysReader.getEventTypes() != null ? new HashSet<>(Arrays.asList(keysReader.getEventTypes())) : null;
+                this.commands = keysReader.getCommands() != null ? upperCase(keysReader.getCommands()) : null;
+            } else {
+                this.keyPattern = null;
+                this.eventTypes = null;
+                this.commands = null;
+            }
+        }
+
+        private static Set<String> upperCase(String[] values) {
+            Set<String> set = new HashSet<>();
+            for (String value : values) set.add(value.toUpperCase());
+            return set;
+        }
+
+        private boolean notified(String event, String key) {
+            return keyPattern != null && commands == null
+                    && (eventTypes == null || eventTypes.contains(event)) && keyPattern.matcher(key).matches();
+        }
+
+        private boolean hooks(String[] command) {
+            return commands != null && command.length > 1 && commands.contains(command[0].toUpperCase())
+                    && keyPattern.matcher(command[1]).matches();
+        }
+
+        private boolean triggeredBy(String trigger) {
+            return reader instanceof CommandReader && trigger.equals(((CommandReader) reader).getTrigger());
+        }
+
+        private boolean readsValues() {
+            return reader instanceof KeysReader && ((KeysReader) reader).isReadValues();
+        }
+
+        /**
+         * Runs the record through the operations: returns the future of a final async foreach, else the record.
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Object run(Serializable record) throws Exception {
+            triggered.incrementAndGet();
+            Serializable current = record;
+            for (int i = 0; i < operations.size(); i++) {
+                Serializable operation = operations.get(i);
+                if (operation instanceof MapOperation) {
+                    current = ((MapOperation) operation).map(current);
+                } else if (operation instanceof FilterOperation) {
+                    if (!((FilterOperation) operation).filter(current)) return null;
+                } else if (operation instanceof ForeachOperation) {
+                    ((ForeachOperation) operation).foreach(current);
+                } else if (operation instanceof AsyncForeachOperation) {
+                    if (i != operations.size() - 1) throw new UnsupportedOperationException("asyncForeach must be the last operation");
+                    return ((AsyncForeachOperation) operation).foreach(current);
+                } else {
+                    throw new UnsupportedOperationException(operation.getClass().getName());
+                }
+            }
+            return current;
+        }
+    }
+
+    private final ReentrantLock gil = new ReentrantLock();
+    private final FakeRedis redis = new FakeRedis(this::notifyKeyspace);
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+    private final ExecutorService executionThreads = Executors.newFixedThreadPool(3, r -> daemon(r, "gears-execution"));
+    private final ScheduledExecutorService expireCycle = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "gears-expire"));
+    private final ThreadLocal<Boolean> avoidNotifications = ThreadLocal.withInitial(() -> false);
+    private final ThreadLocal<Call> client = new ThreadLocal<>();
+    private final ThreadLocal<Reply> pendingReply = new ThreadLocal<>();
+    private final Map<GearsFuture<?>, Reply> completedReplies = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final Map<String, String> config = new ConcurrentHashMap<>();
+    private final ArrayDeque<String> logs = new ArrayDeque<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong registrationIds = new AtomicLong();
+    private volatile int[] clusterSlots;
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long futureTimeoutMillis = 30_000;
+
+    private FakeGears() {
+        expireCycle.scheduleWithFixedDelay(() -> {
+            gil.lock();
+            try {
+                redis.expireKeys();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                gil.unlock();
+            }
+        }, 100, 100, TimeUnit.MILLISECONDS);
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    // ---- client side
+
+    /**
+     * Runs a client command, as redis-cli would, and returns its reply.
+     */
+    public Object call(String... command) {
+        int holds = lockGil();
+        Call outer = client.get();
+        Call call = new Call(command);
+        client.set(call);
+        try {
+            for (Registration registration : registrations) {
+                if (registration.hooks(command)) {
+                    dispatch(registration, record(registration, command[1], command[0].toLowerCase()), true);
+                }
+            }
+            resume(call, holds);
+            if (call.reply != null) return reply(call.reply.value);
+            Object reply = redis.execute(command);
+            resume(call, holds);
+            return call.reply != null ? reply(call.reply.value) : reply;
+        } finally {
+            client.set(outer);
+            gil.unlock();
+        }
+    }
+
+    /**
+     * An overridden reply as the client would get it: collections are sent as arrays, numbers as integers.
+     */
+    private static Object reply(Object value) {
+        if (value instanceof Collection) value = ((Collection<?>) value).toArray();
+        if (value instanceof Object[]) {
+            Object[] array = ((Object[]) value).clone();
+            for (int i = 0; i < array.length; i++) array[i] = reply(array[i]);
+            return array;
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) return ((Number) value).longValue();
+        return value;
+    }
+
+    /**
+     * Runs {@code RG.TRIGGER} and returns the record its registration produced, rather than a list of records.
+     */
+    public Object trigger(String trigger, String... args) {
+        Registration registration = null;
+        for (Registration candidate : registrations) {
+            if (candidate.triggeredBy(trigger)) registration = candidate;
+        }
+        if (registration == null) throw new RuntimeException("ERR Could not find registration for trigger " + trigger);
+        Object[] record = new Object[args.length + 1];
+        record[0] = trigger.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < args.length; i++) record[i + 1] = args[i].getBytes(StandardCharsets.UTF_8);
+        String[] command = new String[args.length + 2];
+        command[0] = "RG.TRIGGER";
+        command[1] = trigger;
+        System.arraycopy(args, 0, command, 2, args.length);
+
+        int holds = lockGil();
+        Call outer = client.get();
+        Call call = new Call(command);
+        client.set(call);
+        try {
+            Object result = registration.run(record);
+            if (result instanceof GearsFuture) {
+                call.suspensions.add(suspend(result));
+                resume(call, holds);
+            }
+            return result;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        } finally {
+            client.set(outer);
+            gil.unlock();
+        }
+    }
+
+    /**
+     * Waits for the futures the call is suspended on, with the GIL released, taking the reply they overrode.
+     */
+    private void resume(Call call, int holds) {
+        if (call.suspensions.isEmpty()) return;
+        List<Suspension> suspensions = new ArrayList<>(call.suspensions);
+        call.suspensions.clear();
+        unlockGil(holds);
+        try {
+            for (Suspension suspension : suspensions) {
+                Reply reply = suspension.await();
+                if (reply != null) call.reply = reply;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while suspended", e);
+        } finally {
+            relockGil(holds);
+        }
+    }
+
+    private int lockGil() {
+        gil.lock();
+        return gil.getHoldCount();
+    }
+
+    private void unlockGil(int holds) {
+        for (int i = 0; i < holds; i++) gil.unlock();
+    }
+
+    private void relockGil(int holds) {
+        for (int i = 0; i < holds; i++) gil.lock();
+    }
+
+    // ---- events
+
+    private void notifyKeyspace(String event, String key) {
+        if (avoidNotifications.get()) return;
+        for (Registration registration : registrations) {
+            if (registration.notified(event, key)) dispatch(registration, record(registration, key, event), false);
+        }
+    }
+
+    private KeysReaderRecord record(Registration registration, String key, String event) {
+        if (!registration.readsValues()) return new KeysReaderRecord(key, event, false, null);
+        return new KeysReaderRecord(key, event, true, encode(redis.peek(key)));
+    }
+
+    /**
+     * The value in the layout RedisGears hands it to {@link KeysReaderRecord}: the key type, then the string or
+     * the hash fields and values, each prefixed by its length, in little-endian longs.
+     */
+    @SuppressWarnings("unchecked")
+    private static ByteBuffer encode(Object value) {
+        List<byte[]> parts = new ArrayList<>();
+        long type;
+        if (value == null) {
+            type = KeysReaderRecord.REDISMODULE_KEYTYPE_EMPTY;
+        } else if (value instanceof String) {
+            type = KeysReaderRecord.REDISMODULE_KEYTYPE_STRING;
+            parts.add(((String) value).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof Map) {
+            type = KeysReaderRecord.REDISMODULE_KEYTYPE_HASH;
+            for (Map.Entry<String, String> field : ((Map<String, String>) value).entrySet()) {
+                parts.add(field.getKey().getBytes(StandardCharsets.UTF_8));
+                parts.add(field.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+        } else if (value instanceof Set) {
+            type = KeysReaderRecord.REDISMODULE_KEYTYPE_SET;
+        } else {
+            type = KeysReaderRecord.REDISMODULE_KEYTYPE_STREAM;
+        }
+        int size = Long.BYTES;
+        for (byte[] part : parts) size += Long.BYTES + part.length;
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(type);
+        for (byte[] part : parts) buffer.putLong(part.length).put(part);
+        buffer.flip();
+        return buffer;
+    }
+
+    private void dispatch(Registration registration, Serializable record, boolean hook) {
+        if (registration.mode != ExecutionMode.SYNC) {
+            inFlight.incrementAndGet();
+            executionThreads.execute(() -> {
+                try {
+                    Object result = registration.run(record);
+                    if (result instanceof GearsFuture) suspend(result).await();
+                } catch (Throwable t) {
+                    failed(registration, t);
+                } finally {
+                    idle();
+                }
+            });
+            return;
+        }
+        try {
+            Object result = registration.run(record);
+            if (result instanceof GearsFuture) {
+                Suspension suspension = suspend(result);
+                Call call = client.get();
+                if (call != null) call.suspensions.add(suspension);
+            }
+        } catch (Throwable t) {
+            failed(registration, t);
+            if (hook) throw t instanceof RuntimeException ? (RuntimeException) t : new RuntimeException(t.getMessage(), t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Suspension suspend(Object future) {
+        try {
+            return new Suspension((GearsFuture<Serializable>) future);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void failed(Registration registration, Throwable t) {
+        registration.failures.incrementAndGet();
+        failures.incrementAndGet();
+        log("Execution of " + registration.id + " failed: " + t, LogLevel.WARNING);
+    }
+
+    private void idle() {
+        if (inFlight.decrementAndGet() == 0) {
+            synchronized (inFlight) {
+                inFlight.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until no execution is running and no future is unresolved. Work the patterns run on their own threads,
+     * such as write-behind drains, is not tracked.
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (inFlight) {
+            while (inFlight.get() > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                inFlight.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    // ---- registrations
+
+    public String register(BaseReader<?> reader, String desc, ExecutionMode mode, List<Serializable> operations,
+                           OnRegisteredOperation onRegistered, OnUnregisteredOperation onUnregistered) {
+        String id = String.format("0000000000000000000000000000000000000000-%d", registrationIds.incrementAndGet());
+        List<Serializable> copies = new ArrayList<>(operations.size());
+        for (Serializable operation : operations) copies.add(copy(operation));
+        Registration registration = new Registration(id, reader, mode != null ? mode : ExecutionMode.ASYNC, copies, copy(onUnregistered));
+        registrations.add(registration);
+        if (onRegistered != null) {
+            try {
+                copy(onRegistered).onRegistered(id);
+            } catch (Exception e) {
+                throw new RuntimeException("onRegistered of " + id + " failed", e);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Unregisters everything, calling the unregistration callbacks, and empties the keyspace.
+     */
+    public void reset() throws InterruptedException {
+        awaitIdle(futureTimeoutMillis);
+        for (Registration registration : registrations) {
+            registrations.remove(registration);
+            if (registration.onUnregistered != null) {
+                try {
+                    registration.onUnregistered.onUnregistered();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        gil.lock();
+        try {
+            redis.execute("FLUSHALL");
+        } finally {
+            gil.unlock();
+        }
+        completedReplies.clear();
+        config.clear();
+        clusterSlots = null;
+        synchronized (logs) {
+            logs.clear();
+        }
+        failures.set(0);
+    }
+
+    /**
+     * Executions that threw, since the last reset.
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public List<String> getRegistrations() {
+        List<String> ids = new ArrayList<>();
+        for (Registration registration : registrations) ids.add(registration.id + " " + registration.reader.getName() + " " + registration.mode + " triggered=" + registration.triggered + " failures=" + registration.failures);
+        return ids;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T copy(T object) {
+        if (object == null) return null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(object);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                return (T) in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("RedisGears cannot serialize " + object, e);
+        }
+    }
+
+    // ---- GearsBuilder statics
+
+    public Object executeArray(String[] command) {
+        if (!gil.isHeldByCurrentThread()) {
+            throw new IllegalStateException("executeArray(" + command[0] + ") without holding the GIL");
+        }
+        if ("RG.INFOCLUSTER".equalsIgnoreCase(command[0])) return infoCluster();
+        return redis.execute(command);
+    }
+
+    public byte[][] getCommand() {
+        Call call = client.get();
+        return call != null ? call.command : null;
+    }
+
+    /**
+     * Overrides the reply of the client command running on this thread; from any other thread, the reply of the
+     * client suspended on the future this thread completes next.
+     */
+    public void overrideReply(Object reply) {
+        Call call = client.get();
+        if (call != null) call.reply = new Reply(reply);
+        else pendingReply.set(new Reply(reply));
+    }
+
+    /**
+     * Called by the test copy of {@link GearsFuture} on the thread completing it.
+     */
+    public void completing(GearsFuture<?> future) {
+        Reply reply = pendingReply.get();
+        if (reply != null) {
+            pendingReply.remove();
+            completedReplies.put(future, reply);
+        }
+    }
+
+    public boolean setAvoidNotifications(boolean avoid) {
+        boolean previous = avoidNotifications.get();
+        avoidNotifications.set(avoid);
+        return previous;
+    }
+
+    public void acquireRedisGil() {
+        gil.lock();
+    }
+
+    public void releaseRedisGil() {
+        gil.unlock();
+    }
+
+    /**
+     * Pretends this shard is part of a two-shard cluster owning the given hash slots, until the next reset.
+     */
+    public void setClusterSlots(int minSlot, int maxSlot) {
+        clusterSlots = new int[]{minSlot, maxSlot};
+    }
+
+    private Object infoCluster() {
+        int[] slots = clusterSlots;
+        if (slots == null) return "no cluster mode";
+        Object[] self = shard("fake-1", slots[0], slots[1]);
+        Object[] other = slots[0] > 0 ? shard("fake-2", 0, slots[0] - 1) : shard("fake-2", slots[1] + 1, 16383);
+        return new Object[]{"MyId", "fake-1", "MyRunId", "fake-run", new Object[]{other, self}};
+    }
+
+    private static Object[] shard(String id, long minSlot, long maxSlot) {
+        return new Object[]{"id", id, "ip", "127.0.0.1", "port", 6379L, "unixSocket", "None", "runid", id + "-run",
+                "minHslot", minSlot, "maxHslot", maxSlot};
+    }
+
+    public String hashtag() {
+        return "06S";
+    }
+
+    public String configGet(String key) {
+        return config.get(key);
+    }
+
+    public void configSet(String key, String value) {
+        config.put(key, value);
+    }
+
+    public void log(String message, LogLevel level) {
+        synchronized (logs) {
+            logs.addLast(level + " " + message);
+            if (logs.size() > 10_000) logs.pollFirst();
+        }
+        if (level == LogLevel.WARNING || Boolean.getBoolean("gears.log")) System.err.println("[gears] " + level + " " + message);
+    }
+
+    public List<String> getLogs() {
+        synchronized (logs) {
+            return new ArrayList<>(logs);
+        }
+    }
+
+    public void setFutureTimeoutMillis(long futureTimeoutMillis) {
+        this.futureTimeoutMillis = futureTimeoutMillis;
+    }
+}
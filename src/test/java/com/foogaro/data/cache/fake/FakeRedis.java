@@ -0,0 +1,706 @@
+package com.foogaro.data.cache.fake;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory Redis keyspace with the commands the patterns and the load driver use, replying with the types
+ * {@code GearsBuilder.executeArray} returns: String, Long, Object[] or null; errors are thrown as
+ * {@link RuntimeException}s. Writes fire their keyspace notification, as do reads of missing keys ({@code keymiss})
+ * and expirations, found on access or by {@link #expireKeys()}.
+ * Not thread safe: it is only accessed holding the fake GIL.
+ */
+public class FakeRedis {
+
+    public interface Listener {
+        void notify(String event, String key);
+    }
+
+    private static final String WRONGTYPE = "WRONGTYPE Operation against a key holding the wrong kind of value";
+
+    private static final class Entry {
+        private final Object value;
+        private long expireAt;
+        private long accessedAt;
+
+        private Entry(Object value) {
+            this.value = value;
+            this.accessedAt = System.currentTimeMillis();
+        }
+    }
+
+    private static final class Group {
+        private StreamId lastDelivered;
+        private final TreeMap<StreamId, String> pending = new TreeMap<>();
+
+        private Group(StreamId lastDelivered) {
+            this.lastDelivered = lastDelivered;
+        }
+    }
+
+    private static final class Stream {
+        private final TreeMap<StreamId, String[]> entries = new TreeMap<>();
+        private final Map<String, Group> groups = new HashMap<>();
+        private StreamId lastId = StreamId.MIN;
+    }
+
+    private static final class StreamId implements Comparable<StreamId> {
+        private static final StreamId MIN = new StreamId(0, 0);
+        private static final StreamId MAX = new StreamId(Long.MAX_VALUE, Long.MAX_VALUE);
+
+        private final long millis;
+        private final long sequence;
+
+        private StreamId(long millis, long sequence) {
+            this.millis = millis;
+            this.sequence = sequence;
+        }
+
+        private static StreamId parse(String id, boolean end) {
+            if (id.equals("-")) return MIN;
+            if (id.equals("+")) return MAX;
+            int separator = id.indexOf('-');
+            try {
+                if (separator < 0) return new StreamId(Long.parseLong(id), end ? Long.MAX_VALUE : 0);
+                return new StreamId(Long.parseLong(id.substring(0, separator)), Long.parseLong(id.substring(separator + 1)));
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("ERR Invalid stream ID specified as stream command argument");
+            }
+        }
+
+        @Override
+        public int compareTo(StreamId other) {
+            int compare = Long.compareUnsigned(millis, other.millis);
+            return compare != 0 ? compare : Long.compareUnsigned(sequence, other.sequence);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof StreamId && compareTo((StreamId) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(millis) * 31 + Long.hashCode(sequence);
+        }
+
+        @Override
+        public String toString() {
+            return millis + "-" + sequence;
+        }
+    }
+
+    private final Map<String, Entry> keys = new HashMap<>();
+    private final Set<String> volatileKeys = new LinkedHashSet<>();
+    private final Listener listener;
+
+    public FakeRedis(Listener listener) {
+        this.listener = listener;
+    }
+
+    public Object execute(String... command) {
+        if (command.length == 0) throw new RuntimeException("ERR empty command");
+        String name = command[0].toUpperCase();
+        switch (name) {
+            case "PING": return "PONG";
+            case "DBSIZE": return (long) keys.size();
+            case "FLUSHALL":
+            case "FLUSHDB":
+                keys.clear();
+                volatileKeys.clear();
+                return "OK";
+            case "KEYS": return keys(command);
+            case "TYPE": return type(command);
+            case "EXISTS": return exists(command);
+            case "DEL":
+            case "UNLINK": return del(command);
+            case "EXPIRE": return expire(command, 1000);
+            case "PEXPIRE": return expire(command, 1);
+            case "TTL": return ttl(command, 1000);
+            case "PTTL": return ttl(command, 1);
+            case "PERSIST": return persist(command);
+            case "OBJECT": return object(command);
+            case "GET": return get(command);
+            case "SET": return set(command);
+            case "HSET": return hset(command);
+            case "HGET": return hget(command);
+            case "HMGET": return hmget(command);
+            case "HGETALL": return hgetall(command);
+            case "HEXISTS": return hexists(command);
+            case "HLEN": return hlen(command);
+            case "HDEL": return hdel(command);
+            case "SADD": return sadd(command);
+            case "SREM": return srem(command);
+            case "SMEMBERS": return smembers(command);
+            case "SCARD": return scard(command);
+            case "XADD": return xadd(command);
+            case "XLEN": return xlen(command);
+            case "XRANGE": return xrange(command, false);
+            case "XREVRANGE": return xrange(command, true);
+            case "XREAD": return xread(command);
+            case "XREADGROUP": return xreadgroup(command);
+            case "XGROUP": return xgroup(command);
+            case "XACK": return xack(command);
+            case "XDEL": return xdel(command);
+            default: throw new RuntimeException("ERR unknown command '" + command[0] + "'");
+        }
+    }
+
+    /**
+     * Deletes the keys whose time to live has elapsed, firing {@code expired} for each, as the Redis active
+     * expiration cycle does.
+     */
+    public int expireKeys() {
+        long now = System.currentTimeMillis();
+        List<String> expired = new ArrayList<>();
+        for (String key : volatileKeys) {
+            if (keys.get(key).expireAt <= now) expired.add(key);
+        }
+        for (String key : expired) {
+            remove(key);
+            listener.notify("expired", key);
+        }
+        return expired.size();
+    }
+
+    /**
+     * The value at the key, without touching it or firing any notification.
+     */
+    Object peek(String key) {
+        Entry entry = keys.get(key);
+        if (entry == null || entry.expireAt > 0 && entry.expireAt <= System.currentTimeMillis()) return null;
+        return entry.value;
+    }
+
+    /**
+     * The entry at the key, touched; read misses fire {@code keymiss}.
+     */
+    private Entry lookup(String key, boolean read) {
+        Entry entry = peekEntry(key);
+        if (entry == null) {
+            if (read) listener.notify("keymiss", key);
+            return null;
+        }
+        entry.accessedAt = System.currentTimeMillis();
+        return entry;
+    }
+
+    /**
+     * The entry at the key, untouched; an expired one is deleted first, firing {@code expired}.
+     */
+    private Entry peekEntry(String key) {
+        Entry entry = keys.get(key);
+        if (entry != null && entry.expireAt > 0 && entry.expireAt <= System.currentTimeMillis()) {
+            remove(key);
+            listener.notify("expired", key);
+            return null;
+        }
+        return entry;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> V value(Entry entry, Class<V> type) {
+        if (entry == null) return null;
+        if (!type.isInstance(entry.value)) throw new RuntimeException(WRONGTYPE);
+        return (V) entry.value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> V valueOrCreate(String key, Class<V> type, java.util.function.Supplier<V> factory) {
+        Entry entry = lookup(key, false);
+        if (entry == null) {
+            entry = new Entry(factory.get());
+            keys.put(key, entry);
+        }
+        return value(entry, type);
+    }
+
+    private void remove(String key) {
+        keys.remove(key);
+        volatileKeys.remove(key);
+    }
+
+    private static void arity(String[] command, int min) {
+        if (command.length < min) throw new RuntimeException("ERR wrong number of arguments for '" + command[0].toLowerCase() + "' command");
+    }
+
+    private Object keys(String[] command) {
+        arity(command, 2);
+        Pattern pattern = glob(command[1]);
+        List<String> found = new ArrayList<>();
+        for (String key : new ArrayList<>(keys.keySet())) {
+            if (pattern.matcher(key).matches() && peekEntry(key) != null) found.add(key);
+        }
+        return found.toArray();
+    }
+
+    private Object type(String[] command) {
+        arity(command, 2);
+        Entry entry = peekEntry(command[1]);
+        if (entry == null) return "none";
+        if (entry.value instanceof String) return "string";
+        if (entry.value instanceof Map) return "hash";
+        if (entry.value instanceof Set) return "set";
+        return "stream";
+    }
+
+    private Object exists(String[] command) {
+        arity(command, 2);
+        long count = 0;
+        for (int i = 1; i < command.length; i++) {
+            if (peekEntry(command[i]) != null) count++;
+        }
+        return count;
+    }
+
+    private Object del(String[] command) {
+        arity(command, 2);
+        long count = 0;
+        for (int i = 1; i < command.length; i++) {
+            if (peekEntry(command[i]) != null) {
+                remove(command[i]);
+                listener.notify("del", command[i]);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Object expire(String[] command, long unitMillis) {
+        arity(command, 3);
+        String key = command[1];
+        Entry entry = peekEntry(key);
+        if (entry == null) return 0L;
+        long ttl = Long.parseLong(command[2]) * unitMillis;
+        if (ttl <= 0) {
+            remove(key);
+            listener.notify("del", key);
+            return 1L;
+        }
+        entry.expireAt = System.currentTimeMillis() + ttl;
+        volatileKeys.add(key);
+        listener.notify("expire", key);
+        return 1L;
+    }
+
+    private Object ttl(String[] command, long unitMillis) {
+        arity(command, 2);
+        Entry entry = peekEntry(command[1]);
+        if (entry == null) return -2L;
+        if (entry.expireAt == 0) return -1L;
+        long remaining = Math.max(0, entry.expireAt - System.currentTimeMillis());
+        return unitMillis == 1 ? remaining : (remaining + 500) / 1000;
+    }
+
+    private Object persist(String[] command) {
+        arity(command, 2);
+        Entry entry = peekEntry(command[1]);
+        if (entry == null || entry.expireAt == 0) return 0L;
+        entry.expireAt = 0;
+        volatileKeys.remove(command[1]);
+        listener.notify("persist", command[1]);
+        return 1L;
+    }
+
+    private Object object(String[] command) {
+        arity(command, 3);
+        if (!command[1].equalsIgnoreCase("IDLETIME")) throw new RuntimeException("ERR unknown subcommand '" + command[1] + "'");
+        Entry entry = peekEntry(command[2]);
+        return entry != null ? (System.currentTimeMillis() - entry.accessedAt) / 1000 : null;
+    }
+
+    private Object get(String[] command) {
+        arity(command, 2);
+        return value(lookup(command[1], true), String.class);
+    }
+
+    private Object set(String[] command) {
+        arity(command, 3);
+        String key = command[1];
+        long ttl = 0;
+        boolean keepTtl = false, nx = false, xx = false;
+        for (int i = 3; i < command.length; i++) {
+            switch (command[i].toUpperCase()) {
+                case "EX": ttl = Long.parseLong(command[++i]) * 1000; break;
+                case "PX": ttl = Long.parseLong(command[++i]); break;
+                case "KEEPTTL": keepTtl = true; break;
+                case "NX": nx = true; break;
+                case "XX": xx = true; break;
+                default: throw new RuntimeException("ERR syntax error");
+            }
+        }
+        Entry previous = peekEntry(key);
+        if (nx && previous != null || xx && previous == null) return null;
+        Entry entry = new Entry(command[2]);
+        if (keepTtl && previous != null) entry.expireAt = previous.expireAt;
+        if (ttl > 0) entry.expireAt = System.currentTimeMillis() + ttl;
+        keys.put(key, entry);
+        if (entry.expireAt > 0) volatileKeys.add(key);
+        else volatileKeys.remove(key);
+        listener.notify("set", key);
+        if (ttl > 0) listener.notify("expire", key);
+        return "OK";
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object hset(String[] command) {
+        if (command.length < 4 || command.length % 2 != 0) arity(command, Integer.MAX_VALUE);
+        Map<String, String> hash = valueOrCreate(command[1], Map.class, LinkedHashMap::new);
+        long added = 0;
+        for (int i = 2; i < command.length; i += 2) {
+            if (hash.put(command[i], command[i + 1]) == null) added++;
+        }
+        listener.notify("hset", command[1]);
+        return added;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> hash(String key) {
+        return value(lookup(key, true), Map.class);
+    }
+
+    private Object hget(String[] command) {
+        arity(command, 3);
+        Map<String, String> hash = hash(command[1]);
+        return hash != null ? hash.get(command[2]) : null;
+    }
+
+    private Object hmget(String[] command) {
+        arity(command, 3);
+        Map<String, String> hash = hash(command[1]);
+        Object[] values = new Object[command.length - 2];
+        for (int i = 2; i < command.length; i++) values[i - 2] = hash != null ? hash.get(command[i]) : null;
+        return values;
+    }
+
+    private Object hgetall(String[] command) {
+        arity(command, 2);
+        Map<String, String> hash = hash(command[1]);
+        if (hash == null) return new Object[0];
+        Object[] values = new Object[hash.size() * 2];
+        int i = 0;
+        for (Map.Entry<String, String> field : hash.entrySet()) {
+            values[i++] = field.getKey();
+            values[i++] = field.getValue();
+        }
+        return values;
+    }
+
+    private Object hexists(String[] command) {
+        arity(command, 3);
+        Map<String, String> hash = hash(command[1]);
+        return hash != null && hash.containsKey(command[2]) ? 1L : 0L;
+    }
+
+    private Object hlen(String[] command) {
+        arity(command, 2);
+        Map<String, String> hash = hash(command[1]);
+        return hash != null ? (long) hash.size() : 0L;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object hdel(String[] command) {
+        arity(command, 3);
+        Map<String, String> hash = value(lookup(command[1], false), Map.class);
+        if (hash == null) return 0L;
+        long removed = 0;
+        for (int i = 2; i < command.length; i++) {
+            if (hash.remove(command[i]) != null) removed++;
+        }
+        if (removed > 0) listener.notify("hdel", command[1]);
+        if (hash.isEmpty()) {
+            remove(command[1]);
+            listener.notify("del", command[1]);
+        }
+        return removed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object sadd(String[] command) {
+        arity(command, 3);
+        Set<String> set = valueOrCreate(command[1], Set.class, LinkedHashSet::new);
+        long added = 0;
+        for (int i = 2; i < command.length; i++) {
+            if (set.add(command[i])) added++;
+        }
+        if (added > 0) listener.notify("sadd", command[1]);
+        return added;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object srem(String[] command) {
+        arity(command, 3);
+        Set<String> set = value(lookup(command[1], false), Set.class);
+        if (set == null) return 0L;
+        long removed = 0;
+        for (int i = 2; i < command.length; i++) {
+            if (set.remove(command[i])) removed++;
+        }
+        if (removed > 0) listener.notify("srem", command[1]);
+        if (set.isEmpty()) {
+            remove(command[1]);
+            listener.notify("del", command[1]);
+        }
+        return removed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object smembers(String[] command) {
+        arity(command, 2);
+        Set<String> set = value(lookup(command[1], true), Set.class);
+        return set != null ? set.toArray() : new Object[0];
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object scard(String[] command) {
+        arity(command, 2);
+        Set<String> set = value(lookup(command[1], false), Set.class);
+        return set != null ? (long) set.size() : 0L;
+    }
+
+    private Stream stream(String key) {
+        return value(lookup(key, false), Stream.class);
+    }
+
+    private Object xadd(String[] command) {
+        arity(command, 5);
+        String key = command[1];
+        int i = 2;
+        boolean noMakeStream = false;
+        long maxLength = -1;
+        if (command[i].equalsIgnoreCase("NOMKSTREAM")) {
+            noMakeStream = true;
+            i++;
+        }
+        if (command[i].equalsIgnoreCase("MAXLEN")) {
+            i++;
+            if (command[i].equals("~") || command[i].equals("=")) i++;
+            maxLength = Long.parseLong(command[i++]);
+        }
+        if ((command.length - i - 1) < 2 || (command.length - i - 1) % 2 != 0) arity(command, Integer.MAX_VALUE);
+        Stream stream = stream(key);
+        if (stream == null) {
+            if (noMakeStream) return null;
+            stream = new Stream();
+            keys.put(key, new Entry(stream));
+        }
+        StreamId id;
+        if (command[i].equals("*")) {
+            long now = System.currentTimeMillis();
+            id = now > stream.lastId.millis ? new StreamId(now, 0) : new StreamId(stream.lastId.millis, stream.lastId.sequence + 1);
+        } else {
+            id = StreamId.parse(command[i], false);
+            if (id.compareTo(stream.lastId) <= 0) {
+                throw new RuntimeException("ERR The ID specified in XADD is equal or smaller than the target stream top item");
+            }
+        }
+        stream.entries.put(id, Arrays.copyOfRange(command, i + 1, command.length));
+        stream.lastId = id;
+        listener.notify("xadd", key);
+        if (maxLength >= 0 && stream.entries.size() > maxLength) {
+            while (stream.entries.size() > maxLength) stream.entries.pollFirstEntry();
+            listener.notify("xtrim", key);
+        }
+        return id.toString();
+    }
+
+    private Object xlen(String[] command) {
+        arity(command, 2);
+        Stream stream = stream(command[1]);
+        return stream != null ? (long) stream.entries.size() : 0L;
+    }
+
+    private Object xrange(String[] command, boolean reverse) {
+        arity(command, 4);
+        Stream stream = stream(command[1]);
+        if (stream == null) return new Object[0];
+        StreamId start = StreamId.parse(command[reverse ? 3 : 2], false);
+        StreamId end = StreamId.parse(command[reverse ? 2 : 3], true);
+        long count = command.length > 5 && command[4].equalsIgnoreCase("COUNT") ? Long.parseLong(command[5]) : Long.MAX_VALUE;
+        if (start.compareTo(end) > 0) return new Object[0];
+        NavigableMap<StreamId, String[]> range = stream.entries.subMap(start, true, end, true);
+        if (reverse) range = range.descendingMap();
+        List<Object> entries = new ArrayList<>();
+        for (Map.Entry<StreamId, String[]> entry : range.entrySet()) {
+            if (entries.size() >= count) break;
+            entries.add(entry(entry.getKey(), entry.getValue()));
+        }
+        return entries.toArray();
+    }
+
+    private static Object[] entry(StreamId id, String[] fields) {
+        return new Object[]{id.toString(), fields != null ? Arrays.copyOf(fields, fields.length, Object[].class) : null};
+    }
+
+    private Object xread(String[] command) {
+        int i = 1;
+        long count = Long.MAX_VALUE;
+        while (i < command.length && !command[i].equalsIgnoreCase("STREAMS")) {
+            if (command[i].equalsIgnoreCase("COUNT")) count = Long.parseLong(command[++i]);
+            else if (command[i].equalsIgnoreCase("BLOCK")) throw new RuntimeException("ERR BLOCK is not supported by the fake");
+            i++;
+        }
+        String[][] streams = streamsAndIds(command, i + 1);
+        List<Object> reply = new ArrayList<>();
+        for (String[] pair : streams) {
+            Stream stream = stream(pair[0]);
+            if (stream == null) continue;
+            StreamId after = pair[1].equals("$") ? stream.lastId : StreamId.parse(pair[1], false);
+            List<Object> entries = new ArrayList<>();
+            for (Map.Entry<StreamId, String[]> entry : stream.entries.tailMap(after, false).entrySet()) {
+                if (entries.size() >= count) break;
+                entries.add(entry(entry.getKey(), entry.getValue()));
+            }
+            if (!entries.isEmpty()) reply.add(new Object[]{pair[0], entries.toArray()});
+        }
+        return reply.isEmpty() ? null : reply.toArray();
+    }
+
+    private Object xreadgroup(String[] command) {
+        arity(command, 7);
+        if (!command[1].equalsIgnoreCase("GROUP")) throw new RuntimeException("ERR syntax error");
+        String groupName = command[2];
+        String consumer = command[3];
+        int i = 4;
+        long count = Long.MAX_VALUE;
+        boolean noAck = false;
+        while (i < command.length && !command[i].equalsIgnoreCase("STREAMS")) {
+            if (command[i].equalsIgnoreCase("COUNT")) count = Long.parseLong(command[++i]);
+            else if (command[i].equalsIgnoreCase("NOACK")) noAck = true;
+            else if (command[i].equalsIgnoreCase("BLOCK")) throw new RuntimeException("ERR BLOCK is not supported by the fake");
+            i++;
+        }
+        String[][] streams = streamsAndIds(command, i + 1);
+        List<Object> reply = new ArrayList<>();
+        boolean history = false;
+        for (String[] pair : streams) {
+            Stream stream = stream(pair[0]);
+            Group group = stream != null ? stream.groups.get(groupName) : null;
+            if (group == null) {
+                throw new RuntimeException("NOGROUP No such key '" + pair[0] + "' or consumer group '" + groupName + "' in XREADGROUP with GROUP option");
+            }
+            List<Object> entries = new ArrayList<>();
+            if (pair[1].equals(">")) {
+                for (Map.Entry<StreamId, String[]> entry : stream.entries.tailMap(group.lastDelivered, false).entrySet()) {
+                    if (entries.size() >= count) break;
+                    entries.add(entry(entry.getKey(), entry.getValue()));
+                    group.lastDelivered = entry.getKey();
+                    if (!noAck) group.pending.put(entry.getKey(), consumer);
+                }
+                if (!entries.isEmpty()) reply.add(new Object[]{pair[0], entries.toArray()});
+            } else {
+                history = true;
+                for (Map.Entry<StreamId, String> pending : group.pending.tailMap(StreamId.parse(pair[1], false), false).entrySet()) {
+                    if (entries.size() >= count) break;
+                    if (!pending.getValue().equals(consumer)) continue;
+                    // entries deleted while pending are delivered without their fields
+                    entries.add(entry(pending.getKey(), stream.entries.get(pending.getKey())));
+                }
+                reply.add(new Object[]{pair[0], entries.toArray()});
+            }
+        }
+        return reply.isEmpty() && !history ? null : reply.toArray();
+    }
+
+    private static String[][] streamsAndIds(String[] command, int from) {
+        int remaining = command.length - from;
+        if (remaining <= 0 || remaining % 2 != 0) {
+            throw new RuntimeException("ERR Unbalanced '" + command[0].toLowerCase() + "' list of streams: for each stream key an ID or '$' must be specified.");
+        }
+        String[][] pairs = new String[remaining / 2][];
+        for (int i = 0; i < pairs.length; i++) pairs[i] = new String[]{command[from + i], command[from + pairs.length + i]};
+        return pairs;
+    }
+
+    private Object xgroup(String[] command) {
+        arity(command, 4);
+        String subcommand = command[1].toUpperCase();
+        String key = command[2];
+        Stream stream = stream(key);
+        switch (subcommand) {
+            case "CREATE": {
+                arity(command, 5);
+                boolean makeStream = command.length > 5 && command[5].equalsIgnoreCase("MKSTREAM");
+                if (stream == null) {
+                    if (!makeStream) throw new RuntimeException("ERR The XGROUP subcommand requires the key to exist.");
+                    stream = new Stream();
+                    keys.put(key, new Entry(stream));
+                }
+                if (stream.groups.containsKey(command[3])) throw new RuntimeException("BUSYGROUP Consumer Group name already exists");
+                StreamId id = command[4].equals("$") ? stream.lastId : StreamId.parse(command[4], false);
+                stream.groups.put(command[3], new Group(id));
+                listener.notify("xgroup-create", key);
+                return "OK";
+            }
+            case "DESTROY":
+                if (stream == null || stream.groups.remove(command[3]) == null) return 0L;
+                listener.notify("xgroup-destroy", key);
+                return 1L;
+            default:
+                throw new RuntimeException("ERR unknown subcommand '" + command[1] + "'");
+        }
+    }
+
+    private Object xack(String[] command) {
+        arity(command, 4);
+        Stream stream = stream(command[1]);
+        Group group = stream != null ? stream.groups.get(command[2]) : null;
+        if (group == null) return 0L;
+        long acknowledged = 0;
+        for (int i = 3; i < command.length; i++) {
+            if (group.pending.remove(StreamId.parse(command[i], false)) != null) acknowledged++;
+        }
+        return acknowledged;
+    }
+
+    private Object xdel(String[] command) {
+        arity(command, 3);
+        Stream stream = stream(command[1]);
+        if (stream == null) return 0L;
+        long deleted = 0;
+        for (int i = 2; i < command.length; i++) {
+            if (stream.entries.remove(StreamId.parse(command[i], false)) != null) deleted++;
+        }
+        if (deleted > 0) listener.notify("xdel", command[1]);
+        return deleted;
+    }
+
+    /**
+     * The regular expression matching the keys of a Redis glob-style pattern.
+     */
+    static Pattern glob(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            switch (c) {
+                case '*': regex.append(".*"); break;
+                case '?': regex.append('.'); break;
+                case '[': {
+                    int end = pattern.indexOf(']', i + 1);
+                    if (end < 0) {
+                        regex.append("\\[");
+                    } else {
+                        regex.append('[').append(pattern, i + 1, end).append(']');
+                        i = end;
+                    }
+                    break;
+                }
+                case '\\':
+                    if (i + 1 < pattern.length()) regex.append(Pattern.quote(String.valueOf(pattern.charAt(++i))));
+                    break;
+                default:
+                    regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
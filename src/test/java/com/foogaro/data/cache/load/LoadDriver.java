@@ -0,0 +1,186 @@
+package com.foogaro.data.cache.load;
+
+import com.foogaro.data.cache.PersonReadReplica;
+import com.foogaro.data.cache.RGManager;
+import com.foogaro.data.cache.fake.EmbeddedDatabase;
+import com.foogaro.data.cache.fake.FakeGears;
+import com.foogaro.data.cache.metrics.Histogram;
+import com.foogaro.data.entities.Person;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replays a {@link Workload} against the patterns {@link RGManager} registers for {@link Person}, plus
+ * {@link PersonReadReplica} when CDC is enabled, on {@link FakeGears} and the embedded database, and reports
+ * throughput and latency percentiles, in microseconds, of the client commands by kind, and of the CDC bursts, in
+ * milliseconds from the first entry added to the last one applied.
+ */
+public class LoadDriver {
+
+    private static final String[] FIELDS = {"firstname", "lastname", "age"};
+
+    private final Workload workload;
+    private final FakeGears gears = FakeGears.get();
+    private final Map<String, Histogram> latencies = new LinkedHashMap<>();
+    private final LongAdder errors = new LongAdder();
+    private final AtomicLong cdcPosition = new AtomicLong(4);
+    private final Zipf hot;
+    private final Zipf cold;
+    private volatile boolean running;
+
+    public LoadDriver(Workload workload) {
+        this.workload = workload;
+        this.hot = new Zipf(workload.getKeys(), workload.getSkew());
+        this.cold = new Zipf(Math.max(1, workload.getColdKeys()), workload.getSkew());
+        for (String kind : new String[]{"hit", "miss", "write", "cdc"}) latencies.put(kind, new Histogram());
+    }
+
+    public Map<String, String> run() throws Exception {
+        RGManager.register(Person.class);
+        if (workload.getCdcBurst() > 0) new PersonReadReplica();
+        try {
+            EmbeddedDatabase.insertPeople(1, workload.getKeys() + workload.getColdKeys());
+            warmCache();
+
+            running = true;
+            ExecutorService threads = Executors.newFixedThreadPool(workload.getClients() + 1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < workload.getClients(); i++) futures.add(threads.submit(this::client));
+            if (workload.getCdcBurst() > 0) futures.add(threads.submit(this::cdc));
+
+            TimeUnit.SECONDS.sleep(workload.getWarmUpSeconds());
+            Map<String, String> discarded = new LinkedHashMap<>();
+            latencies.forEach((kind, histogram) -> histogram.drainTo(kind, discarded));
+            long failuresBefore = gears.getFailures();
+            long start = System.nanoTime();
+            TimeUnit.SECONDS.sleep(workload.getSeconds());
+            Map<String, String> stats = new LinkedHashMap<>();
+            latencies.forEach((kind, histogram) -> histogram.drainTo(kind, stats));
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            long failures = gears.getFailures() - failuresBefore;
+
+            running = false;
+            for (Future<?> future : futures) future.get();
+            threads.shutdown();
+
+            Map<String, String> report = new LinkedHashMap<>();
+            long commands = 0;
+            for (String kind : new String[]{"hit", "miss", "write"}) commands += Long.parseLong(stats.get(kind + ".count"));
+            report.put("throughput", String.format("%.0f", commands / elapsed));
+            report.putAll(stats);
+            report.put("errors", String.valueOf(errors.sum()));
+            report.put("failures", String.valueOf(failures));
+            return report;
+        } finally {
+            running = false;
+            gears.reset();
+            EmbeddedDatabase.clear();
+        }
+    }
+
+    /**
+     * Caches the people hits go to, reading each of them once.
+     */
+    private void warmCache() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(workload.getClients());
+        List<Future<?>> futures = new ArrayList<>();
+        for (int client = 0; client < workload.getClients(); client++) {
+            int first = client;
+            futures.add(threads.submit(() -> {
+                for (int id = 1 + first; id <= workload.getKeys(); id += workload.getClients()) {
+                    gears.call("HGET", "person:" + id, "id");
+                }
+            }));
+        }
+        for (Future<?> future : futures) future.get();
+        threads.shutdown();
+    }
+
+    private void client() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (running) {
+            try {
+                double draw = random.nextDouble();
+                if (draw < workload.getWriteRatio()) {
+                    String key = "person:" + (1 + hot.next());
+                    long start = System.nanoTime();
+                    gears.call("HSET", key, "age", String.valueOf(random.nextInt(10, 100)));
+                    latencies.get("write").record((System.nanoTime() - start) / 1000);
+                } else if (random.nextDouble() < workload.getHitRatio() || workload.getColdKeys() == 0) {
+                    String key = "person:" + (1 + hot.next());
+                    long start = System.nanoTime();
+                    gears.call("HGET", key, FIELDS[random.nextInt(FIELDS.length)]);
+                    latencies.get("hit").record((System.nanoTime() - start) / 1000);
+                } else {
+                    String key = "person:" + (1 + workload.getKeys() + cold.next());
+                    long start = System.nanoTime();
+                    gears.call("HGET", key, FIELDS[random.nextInt(FIELDS.length)]);
+                    latencies.get("miss").record((System.nanoTime() - start) / 1000);
+                    // keeps the key cold for the next miss
+                    gears.call("UNLINK", key);
+                }
+            } catch (RuntimeException e) {
+                errors.increment();
+            }
+        }
+    }
+
+    /**
+     * Adds bursts of change events for people no client reads, and times how long each burst takes to be applied.
+     */
+    private void cdc() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long firstId = workload.getKeys() + workload.getColdKeys() + 1;
+        while (running) {
+            try {
+                long start = System.nanoTime();
+                String key = null, marker = null;
+                for (int i = 0; i < workload.getCdcBurst(); i++) {
+                    long id = firstId + random.nextInt(1000);
+                    long position = cdcPosition.incrementAndGet();
+                    marker = "cdc" + position;
+                    key = "person:" + id;
+                    gears.call("XADD", "vdt.vdt.person", "*", "{\"id\":" + id + "}", "{\"before\":null,"
+                            + "\"after\":{\"id\":" + id + ",\"firstname\":\"" + marker + "\",\"lastname\":\"Replica\",\"age\":40},"
+                            + "\"source\":{\"file\":\"binlog.000001\",\"pos\":" + position + ",\"row\":0},\"op\":\"u\",\"ts_ms\":" + System.currentTimeMillis() + "}");
+                }
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (!marker.equals(gears.call("HGET", key, "firstname")) && System.currentTimeMillis() < deadline) {
+                    TimeUnit.MILLISECONDS.sleep(1);
+                }
+                latencies.get("cdc").record((System.nanoTime() - start) / 1_000_000);
+                TimeUnit.MILLISECONDS.sleep(workload.getCdcIntervalMillis());
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                errors.increment();
+            }
+        }
+    }
+
+    /**
+     * The report as a table, one line per kind of command.
+     */
+    public static String format(Workload workload, Map<String, String> report) {
+        StringBuilder table = new StringBuilder(workload.toString()).append('\n');
+        table.append(String.format("throughput: %s commands/s, errors: %s, execution failures: %s%n",
+                report.get("throughput"), report.get("errors"), report.get("failures")));
+        table.append(String.format("%-10s %10s %8s %8s %8s %8s %8s%n", "", "count", "p50", "p90", "p99", "p999", "max"));
+        for (String kind : new String[]{"hit", "miss", "write", "cdc"}) {
+            table.append(String.format("%-10s %10s %8s %8s %8s %8s %8s%n", kind.equals("cdc") ? "cdc (ms)" : kind + " (us)",
+                    report.get(kind + ".count"), report.get(kind + ".p50"), report.get(kind + ".p90"),
+                    report.get(kind + ".p99"), report.get(kind + ".p999"), report.get(kind + ".max")));
+        }
+        return table.toString();
+    }
+}
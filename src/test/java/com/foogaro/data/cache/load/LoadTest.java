@@ -0,0 +1,23 @@
+package com.foogaro.data.cache.load;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs the workload set with {@code -Dload.*} properties, see {@link Workload}: {@code mvn test -Pload}.
+ */
+@Tag("load")
+class LoadTest {
+
+    @Test
+    void replayWorkload() throws Exception {
+        Workload workload = new Workload();
+        Map<String, String> report = new LoadDriver(workload).run();
+        System.out.println(LoadDriver.format(workload, report));
+        assertEquals("0", report.get("failures"));
+    }
+}
@@ -0,0 +1,85 @@
+package com.foogaro.data.cache.load;
+
+/**
+ * What the load driver replays, set with {@code -Dload.<name>=<value>}:
+ * <ul>
+ * <li>{@code seconds}, {@code warmUpSeconds}: measured run, after a warm-up whose results are discarded;</li>
+ * <li>{@code clients}: threads issuing commands back to back;</li>
+ * <li>{@code keys}: people cached before the run, read by hits and updated by writes;
+ * {@code coldKeys}: people only in the database, read by misses;</li>
+ * <li>{@code hitRatio}: share of reads going to cached people; a miss evicts its key again afterwards;</li>
+ * <li>{@code skew}: Zipf exponent of the key popularity, 0 for uniform;</li>
+ * <li>{@code writeRatio}: share of commands that are HSETs;</li>
+ * <li>{@code cdcBurst}, {@code cdcIntervalMillis}: CDC entries added at once, and how often, to people no client
+ * reads; 0 disables CDC.</li>
+ * </ul>
+ */
+public class Workload {
+
+    private final int seconds = Integer.getInteger("load.seconds", 10);
+    private final int warmUpSeconds = Integer.getInteger("load.warmUpSeconds", 2);
+    private final int clients = Integer.getInteger("load.clients", 8);
+    private final int keys = Integer.getInteger("load.keys", 10_000);
+    private final int coldKeys = Integer.getInteger("load.coldKeys", 10_000);
+    private final double hitRatio = Double.parseDouble(System.getProperty("load.hitRatio", "0.9"));
+    private final double skew = Double.parseDouble(System.getProperty("load.skew", "0.99"));
+    private final double writeRatio = Double.parseDouble(System.getProperty("load.writeRatio", "0.1"));
+    private final int cdcBurst = Integer.getInteger("load.cdcBurst", 100);
+    private final long cdcIntervalMillis = Long.getLong("load.cdcIntervalMillis", 1000L);
+
+    public int getSeconds() {
+        return seconds;
+    }
+
+    public int getWarmUpSeconds() {
+        return warmUpSeconds;
+    }
+
+    public int getClients() {
+        return clients;
+    }
+
+    public int getKeys() {
+        return keys;
+    }
+
+    public int getColdKeys() {
+        return coldKeys;
+    }
+
+    public double getHitRatio() {
+        return hitRatio;
+    }
+
+    public double getSkew() {
+        return skew;
+    }
+
+    public double getWriteRatio() {
+        return writeRatio;
+    }
+
+    public int getCdcBurst() {
+        return cdcBurst;
+    }
+
+    public long getCdcIntervalMillis() {
+        return cdcIntervalMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "Workload{" +
+                "seconds=" + seconds +
+                ", warmUpSeconds=" + warmUpSeconds +
+                ", clients=" + clients +
+                ", keys=" + keys +
+                ", coldKeys=" + coldKeys +
+                ", hitRatio=" + hitRatio +
+                ", skew=" + skew +
+                ", writeRatio=" + writeRatio +
+                ", cdcBurst=" + cdcBurst +
+                ", cdcIntervalMillis=" + cdcIntervalMillis +
+                '}';
+    }
+}
@@ -0,0 +1,34 @@
+package com.foogaro.data.cache.load;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Draws ranks from 0 to n - 1, rank k with a probability proportional to 1 / (k + 1)^exponent.
+ */
+class Zipf {
+
+    private final int n;
+    private final double[] cumulative;
+
+    Zipf(int n, double exponent) {
+        this.n = n;
+        if (exponent <= 0) {
+            this.cumulative = null;
+            return;
+        }
+        this.cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulative[k] = sum;
+        }
+    }
+
+    int next() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (cumulative == null) return random.nextInt(n);
+        int index = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[n - 1]);
+        return Math.min(n - 1, index >= 0 ? index : -index - 1);
+    }
+}
@@ -0,0 +1,99 @@
+package com.foogaro.data.cache.patterns;
+
+import com.foogaro.data.cache.RGManager;
+import com.foogaro.data.cache.fake.Await;
+import com.foogaro.data.cache.fake.EmbeddedDatabase;
+import com.foogaro.data.cache.fake.FakeGears;
+import com.foogaro.data.entities.Person;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WarmUpTest {
+
+    private final FakeGears gears = FakeGears.get();
+
+    static class WarmReadThrough extends ReadThrough {
+
+        WarmReadThrough() {
+            super(Person.class);
+        }
+
+        @Override
+        public WarmUpPolicy getWarmUpPolicy() {
+            return WarmUpPolicy.ALL;
+        }
+
+        @Override
+        public int getWarmUpThreads() {
+            return 2;
+        }
+
+        @Override
+        public int getWarmUpFetchSize() {
+            return 10;
+        }
+
+        @Override
+        public int getWarmUpBatchSize() {
+            return 16;
+        }
+
+        Map<String, String> warmUp() {
+            WarmUp warmUp = peekRuntime("warmUp");
+            return warmUp.toMap();
+        }
+    }
+
+    @BeforeEach
+    void seed() throws Exception {
+        RGManager.register(Person.class);
+        EmbeddedDatabase.insertPeople(1, 100);
+        gears.reset();
+    }
+
+    @AfterEach
+    void reset() throws Exception {
+        gears.reset();
+        EmbeddedDatabase.clear();
+    }
+
+    @Test
+    void warmUpLoadsEveryEntityAndLeavesCachedKeysAlone() throws Exception {
+        gears.call("HSET", "person:7", "id", "7", "firstname", "Cached");
+        WarmReadThrough pattern = new WarmReadThrough();
+        RGManager.register(pattern);
+        Await.until("the warm-up", 10_000, () -> "done".equals(pattern.warmUp().get("state")));
+
+        for (int id = 1; id <= 100; id++) assertEquals(1L, gears.call("EXISTS", "person:" + id), "person:" + id);
+        assertEquals("Cached", ((Object[]) gears.call("HGETALL", "person:7"))[3]);
+        assertEquals("1", pattern.warmUp().get("skipped"));
+        assertEquals("0", pattern.warmUp().get("notLocal"));
+        assertTrue(Long.parseLong(pattern.breaker().toMap().get("calls")) > 100 / 10, "every page goes through the breaker");
+        assertTrue(Long.parseLong(pattern.stats().get("origin.warm_up.writes")) >= 99 * 2, "an HSET and an EXPIRE per entity written");
+        assertTrue(Long.parseLong(pattern.stats().get("pool.acquired")) > 0, "pool metrics are published");
+    }
+
+    @Test
+    void warmUpSkipsKeysOfSlotsOwnedByOtherShards() throws Exception {
+        gears.setClusterSlots(0, 8191);
+        WarmReadThrough pattern = new WarmReadThrough();
+        RGManager.register(pattern);
+        Await.until("the warm-up", 10_000, () -> "done".equals(pattern.warmUp().get("state")));
+
+        int local = 0;
+        for (int id = 1; id <= 100; id++) {
+            String key = "person:" + id;
+            boolean owned = ClusterSlots.slot(key) <= 8191;
+            if (owned) local++;
+            assertEquals(owned ? 1L : 0L, gears.call("EXISTS", key), key);
+        }
+        assertTrue(local > 0 && local < 100, local + " local keys");
+        assertEquals(String.valueOf(100 - local), pattern.warmUp().get("notLocal"));
+    }
+}
@@ -0,0 +1,59 @@
+package com.foogaro.data.entities;
+
+import com.foogaro.data.cache.Cached;
+import com.foogaro.data.cache.codec.Storage;
+
+import javax.persistence.*;
+import java.io.Serializable;
+
+import static com.foogaro.data.cache.patterns.CachingPattern.*;
+
+/**
+ * The {@code person} table again, cached compact for two seconds and refreshed ahead.
+ */
+@Entity
+@Table(name = "person")
+@Cached(keyPrefix = "shortlived", patterns = {READ_THROUGH, REFRESH_AHEAD}, storage = Storage.COMPACT, ttlSeconds = 2)
+public class ShortLivedPerson implements Serializable {
+
+    @Id
+    private Long id;
+    private String firstname;
+    private String lastname;
+    private int age;
+
+    public ShortLivedPerson() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getFirstname() {
+        return firstname;
+    }
+
+    public void setFirstname(String firstname) {
+        this.firstname = firstname;
+    }
+
+    public String getLastname() {
+        return lastname;
+    }
+
+    public void setLastname(String lastname) {
+        this.lastname = lastname;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
+    public void setAge(int age) {
+        this.age = age;
+    }
+}
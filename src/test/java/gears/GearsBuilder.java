@@ -0,0 +1,125 @@
+package gears;
+
+import com.foogaro.data.cache.fake.FakeGears;
+import gears.operations.AsyncForeachOperation;
+import gears.operations.FilterOperation;
+import gears.operations.ForeachOperation;
+import gears.operations.MapOperation;
+import gears.operations.OnRegisteredOperation;
+import gears.operations.OnUnregisteredOperation;
+import gears.readers.BaseReader;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test copy of the RedisGears builder, with the signatures the patterns use, running on {@link FakeGears}
+ * instead of the native plugin. Shadows the class of {@code gear_runtime} on the test classpath.
+ */
+public class GearsBuilder<T extends Serializable> {
+
+    private final BaseReader<T> reader;
+    private final String desc;
+    private final List<Serializable> operations;
+
+    public GearsBuilder(BaseReader<T> reader, String desc) {
+        this(reader, desc, new ArrayList<>());
+    }
+
+    public GearsBuilder(BaseReader<T> reader) {
+        this(reader, null);
+    }
+
+    private GearsBuilder(BaseReader<T> reader, String desc, List<Serializable> operations) {
+        this.reader = reader;
+        this.desc = desc;
+        this.operations = operations;
+    }
+
+    public static <I extends Serializable> GearsBuilder<I> CreateGearsBuilder(BaseReader<I> reader, String desc) {
+        return new GearsBuilder<>(reader, desc);
+    }
+
+    public static <I extends Serializable> GearsBuilder<I> CreateGearsBuilder(BaseReader<I> reader) {
+        return new GearsBuilder<>(reader);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <I extends Serializable> GearsBuilder<I> add(Serializable operation) {
+        operations.add(operation);
+        return (GearsBuilder<I>) this;
+    }
+
+    public <I extends Serializable> GearsBuilder<I> map(MapOperation<T, I> mapper) {
+        return add(mapper);
+    }
+
+    public GearsBuilder<T> filter(FilterOperation<T> filter) {
+        return add(filter);
+    }
+
+    public GearsBuilder<T> foreach(ForeachOperation<T> foreach) {
+        return add(foreach);
+    }
+
+    public GearsBuilder<T> asyncForeach(AsyncForeachOperation<T> foreach) {
+        return add(foreach);
+    }
+
+    public String register() {
+        return register(ExecutionMode.ASYNC);
+    }
+
+    public String register(ExecutionMode mode) {
+        return register(mode, null, null);
+    }
+
+    public String register(ExecutionMode mode, OnRegisteredOperation onRegistered, OnUnregisteredOperation onUnregistered) {
+        return FakeGears.get().register(reader, desc, mode, operations, onRegistered, onUnregistered);
+    }
+
+    public static String hashtag() {
+        return FakeGears.get().hashtag();
+    }
+
+    public static String configGet(String key) {
+        return FakeGears.get().configGet(key);
+    }
+
+    public static Object executeArray(String[] command) {
+        return FakeGears.get().executeArray(command);
+    }
+
+    public static Object execute(String... command) {
+        return executeArray(command);
+    }
+
+    public static byte[][] getCommand() {
+        return FakeGears.get().getCommand();
+    }
+
+    public static void overrideReply(Object reply) {
+        FakeGears.get().overrideReply(reply);
+    }
+
+    public static void log(String message, LogLevel level) {
+        FakeGears.get().log(message, level);
+    }
+
+    public static void log(String message) {
+        log(message, LogLevel.NOTICE);
+    }
+
+    public static boolean setAvoidNotifications(boolean avoid) {
+        return FakeGears.get().setAvoidNotifications(avoid);
+    }
+
+    public static void acquireRedisGil() {
+        FakeGears.get().acquireRedisGil();
+    }
+
+    public static void releaseRedisGil() {
+        FakeGears.get().releaseRedisGil();
+    }
+}
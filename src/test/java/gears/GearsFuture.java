@@ -0,0 +1,43 @@
+package gears;
+
+import com.foogaro.data.cache.fake.FakeGears;
+import gears.operations.GearsFutureOnDone;
+
+import java.io.Serializable;
+
+/**
+ * Test copy of the RedisGears future, identical in behavior, which also hands the reply the completing thread
+ * overrode to {@link FakeGears}: the client suspended on the future gets it whichever thread completes it.
+ */
+public class GearsFuture<I extends Serializable> {
+
+    private I result;
+    private String error;
+    private GearsFutureOnDone<I> callbacks;
+
+    private void callOnDoneCallback() throws Exception {
+        if (callbacks == null) return;
+        if (result != null) callbacks.OnDone(result);
+        else if (error != null) callbacks.OnFailed(error);
+    }
+
+    public synchronized void setResult(I result) throws Exception {
+        if (this.result != null || error != null) throw new Exception("error/results is already set");
+        FakeGears.get().completing(this);
+        this.result = result;
+        callOnDoneCallback();
+    }
+
+    public synchronized void setError(String error) throws Exception {
+        if (result != null || this.error != null) throw new Exception("error/results is already set");
+        FakeGears.get().completing(this);
+        this.error = error;
+        callOnDoneCallback();
+    }
+
+    public synchronized void setFutureCallbacks(GearsFutureOnDone<I> callbacks) throws Exception {
+        if (this.callbacks != null) throw new Exception("onDone callback is already set");
+        this.callbacks = callbacks;
+        callOnDoneCallback();
+    }
+}